@@ -0,0 +1,199 @@
+-- outbox_event: OutboxRelay 가 읽을 발행 대상 topic 과 PENDING row 를 id 순으로 claim 하는 index.
+-- 기존 row 는 gateway 가 event_type 별로 고정된 topic 으로 보냈으므로 그대로 채운 뒤 NOT NULL 로 바꾼다
+ALTER TABLE saga_db.outbox_event
+    ADD COLUMN topic varchar(100) NULL AFTER id;
+UPDATE saga_db.outbox_event
+    SET topic = CASE event_type
+        WHEN 'PaymentRequest' THEN 'ord-pay-req-cmd'
+        WHEN 'inventoryFailurePaymentCompensate' THEN 'ord-pay-inv-comp-req'
+        WHEN 'inventoryReserve' THEN 'ord-inv-dec-cmd'
+        WHEN 'InventoryFailureInventoryCompensate' THEN 'ord-inv-inv-comp-req'
+    END
+    WHERE topic IS NULL;
+ALTER TABLE saga_db.outbox_event
+    MODIFY COLUMN topic varchar(100) NOT NULL,
+    ADD INDEX idx_outbox_event_status_id (status, id);
+
+-- saga_state_machine: binary context codec
+-- 기존 JSON row 는 그대로 읽히고, 다음 전이 때 context_binary 로 다시 저장되면서 context_json 은 비워진다
+ALTER TABLE saga_db.saga_state_machine
+    MODIFY COLUMN context_json json NULL,
+    ADD COLUMN context_binary varbinary(1024) NULL;
+
+-- outbox_event: sagaId 를 kafka message key 로 발행
+ALTER TABLE saga_db.outbox_event
+    ADD COLUMN message_key varchar(100) NULL;
+
+-- saga_instance: step 완료 집계용 카운터
+ALTER TABLE saga_db.saga_instance
+    ADD COLUMN outstanding_steps int NOT NULL DEFAULT 0,
+    ADD COLUMN next_execution_order int NOT NULL DEFAULT 0;
+
+-- saga_instance: 주문당 saga 하나 (OrderCreatedEvent 재배달 시 중복 saga 방지)
+-- 기존 row 는 context 의 orderId 로 채운다. 이미 중복된 주문이 있으면 unique index 생성 전에 정리해야 한다
+ALTER TABLE saga_db.saga_instance
+    ADD COLUMN order_id varchar(100) NULL AFTER saga_type;
+UPDATE saga_db.saga_instance
+    SET order_id = JSON_UNQUOTE(JSON_EXTRACT(context, '$.orderId'))
+    WHERE order_id IS NULL;
+ALTER TABLE saga_db.saga_instance
+    ADD CONSTRAINT uk_saga_instance_order_id UNIQUE (order_id);
+
+-- processed_message: 참여자 응답 중복 처리 방지 (stepId:topic)
+CREATE TABLE saga_db.processed_message (
+    message_key varchar(100) NOT NULL PRIMARY KEY,
+    processed_at datetime(6) NOT NULL,
+    INDEX idx_processed_message_processed_at (processed_at)
+);
+
+-- saga_instance: 기동/rebalance 시 진행 중인 saga 를 상태별 keyset 으로 훑는다
+ALTER TABLE saga_db.saga_instance
+    ADD INDEX idx_saga_instance_status_id (status, id);
+
+-- outbox_event: command 를 쓴 span 의 traceparent 등. relay 가 kafka header 로 옮긴다
+ALTER TABLE saga_db.outbox_event
+    ADD COLUMN trace_headers varchar(512) NULL;
+
+-- saga_journal: statemachine.persist.mode=journal 에서 transition 마다 append. saga_state_machine 은 snapshot 만 담는다
+CREATE TABLE saga_db.saga_journal (
+    saga_id varchar(100) NOT NULL,
+    seq bigint NOT NULL,
+    event varchar(50) NULL,
+    from_state varchar(50) NULL,
+    to_state varchar(50) NOT NULL,
+    step_id varchar(255) NULL,
+    created_at datetime(6) NOT NULL,
+    PRIMARY KEY (saga_id, seq)
+);
+ALTER TABLE saga_db.saga_state_machine
+    ADD COLUMN journal_seq bigint NULL;
+
+-- outbox_event: SagaArchiver 가 message_key 로 saga 의 outbox row 를 찾는다.
+-- message_key 가 생기기 전에 쓰인 row 는 payload 의 sagaId 로 채워야 archive 로 옮겨진다
+UPDATE saga_db.outbox_event
+    SET message_key = JSON_UNQUOTE(JSON_EXTRACT(payload, '$.sagaId'))
+    WHERE message_key IS NULL;
+ALTER TABLE saga_db.outbox_event
+    ADD INDEX idx_outbox_event_message_key (message_key);
+
+-- archive: retention 이 지난 terminal saga 를 옮겨 두는 테이블. 컬럼은 hot table 과 같은 순서이고 archived_at 만 마지막에 붙는다
+-- (hot table 에 컬럼을 추가하면 archive 에도 같은 위치에 추가할 것). archived_at 으로 월별 range partition 하고
+-- ArchivePartitionMaintainer 가 p_future 에서 다음 달 partition 을 떼어내고 keep-months 가 지난 partition 을 drop 한다
+CREATE TABLE saga_db.saga_instance_archive LIKE saga_db.saga_instance;
+ALTER TABLE saga_db.saga_instance_archive
+    DROP INDEX uk_saga_instance_order_id,
+    DROP INDEX idx_saga_instance_status_id,
+    ADD COLUMN archived_at datetime(6) NOT NULL,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, archived_at),
+    ADD INDEX idx_saga_instance_archive_order_id (order_id)
+    PARTITION BY RANGE COLUMNS (archived_at) (PARTITION p_future VALUES LESS THAN (MAXVALUE));
+
+CREATE TABLE saga_db.saga_step_archive LIKE saga_db.saga_step;
+ALTER TABLE saga_db.saga_step_archive
+    ADD COLUMN archived_at datetime(6) NOT NULL,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, archived_at)
+    PARTITION BY RANGE COLUMNS (archived_at) (PARTITION p_future VALUES LESS THAN (MAXVALUE));
+
+CREATE TABLE saga_db.outbox_event_archive LIKE saga_db.outbox_event;
+ALTER TABLE saga_db.outbox_event_archive
+    DROP INDEX idx_outbox_event_status_id,
+    ADD COLUMN archived_at datetime(6) NOT NULL,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, archived_at)
+    PARTITION BY RANGE COLUMNS (archived_at) (PARTITION p_future VALUES LESS THAN (MAXVALUE));
+
+CREATE TABLE saga_db.saga_state_machine_archive LIKE saga_db.saga_state_machine;
+ALTER TABLE saga_db.saga_state_machine_archive
+    ADD COLUMN archived_at datetime(6) NOT NULL,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, archived_at)
+    PARTITION BY RANGE COLUMNS (archived_at) (PARTITION p_future VALUES LESS THAN (MAXVALUE));
+
+CREATE TABLE saga_db.saga_journal_archive LIKE saga_db.saga_journal;
+ALTER TABLE saga_db.saga_journal_archive
+    ADD COLUMN archived_at datetime(6) NOT NULL,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (saga_id, seq, archived_at)
+    PARTITION BY RANGE COLUMNS (archived_at) (PARTITION p_future VALUES LESS THAN (MAXVALUE));
+
+-- Snowflake id 를 varchar 문자열 대신 bigint 로 저장한다. 기존 값은 모두 String.valueOf(long) 이므로 MODIFY 가 그대로 숫자로 바꾼다.
+-- 테이블을 다시 쓰는 ALTER 이므로 큰 테이블은 점검 시간에 돌리거나 online schema change 도구로 옮길 것.
+-- FK 양쪽(saga_step.saga_id → saga_instance.id, compensates_step_id → saga_step.id)을 차례로 바꾸는 동안만 FK 검사를 끈다
+SET FOREIGN_KEY_CHECKS = 0;
+ALTER TABLE saga_db.saga_instance
+    MODIFY COLUMN id bigint NOT NULL;
+ALTER TABLE saga_db.saga_step
+    MODIFY COLUMN id bigint NOT NULL,
+    MODIFY COLUMN saga_id bigint NOT NULL,
+    MODIFY COLUMN compensates_step_id bigint NULL;
+SET FOREIGN_KEY_CHECKS = 1;
+ALTER TABLE saga_db.outbox_event
+    MODIFY COLUMN id bigint NOT NULL,
+    MODIFY COLUMN message_key bigint NULL;
+ALTER TABLE saga_db.saga_state_machine
+    MODIFY COLUMN id bigint NOT NULL;
+ALTER TABLE saga_db.saga_journal
+    MODIFY COLUMN saga_id bigint NOT NULL,
+    MODIFY COLUMN step_id bigint NULL;
+
+-- archive 는 hot table 과 컬럼 타입이 같아야 INSERT ... SELECT t.* 가 변환 없이 들어간다
+ALTER TABLE saga_db.saga_instance_archive
+    MODIFY COLUMN id bigint NOT NULL;
+ALTER TABLE saga_db.saga_step_archive
+    MODIFY COLUMN id bigint NOT NULL,
+    MODIFY COLUMN saga_id bigint NOT NULL,
+    MODIFY COLUMN compensates_step_id bigint NULL;
+ALTER TABLE saga_db.outbox_event_archive
+    MODIFY COLUMN id bigint NOT NULL,
+    MODIFY COLUMN message_key bigint NULL;
+ALTER TABLE saga_db.saga_state_machine_archive
+    MODIFY COLUMN id bigint NOT NULL;
+ALTER TABLE saga_db.saga_journal_archive
+    MODIFY COLUMN saga_id bigint NOT NULL,
+    MODIFY COLUMN step_id bigint NULL;
+
+-- saga_instance.context, saga_step.command/event_response, outbox_event.payload: saga.payload.compression=zstd 로 쓰면
+-- json 컬럼 대신 옆의 *_zstd blob 에 dictionary 압축한 zstd frame 이 들어간다. 한 row 에는 둘 중 하나만 채워진다.
+-- 기존 row 는 json 그대로 읽히고 hot table 에서는 archive 로, archive 에서는 partition drop 으로 빠져나간다 (backfill 하지 않는다).
+-- outbox_event.payload 를 NULL 허용으로 바꾸는 MODIFY 는 테이블을 다시 쓰므로 큰 테이블은 점검 시간에 돌리거나 online schema change 도구로 옮길 것
+ALTER TABLE saga_db.saga_instance
+    ADD COLUMN context_zstd blob NULL AFTER context;
+ALTER TABLE saga_db.saga_step
+    ADD COLUMN command_zstd blob NULL AFTER command,
+    ADD COLUMN event_response_zstd blob NULL AFTER event_response;
+ALTER TABLE saga_db.outbox_event
+    MODIFY COLUMN payload json NULL,
+    ADD COLUMN payload_zstd blob NULL AFTER payload;
+
+-- archive 도 같은 위치에 같은 컬럼이 있어야 INSERT ... SELECT t.* 가 맞는다
+ALTER TABLE saga_db.saga_instance_archive
+    ADD COLUMN context_zstd blob NULL AFTER context;
+ALTER TABLE saga_db.saga_step_archive
+    ADD COLUMN command_zstd blob NULL AFTER command,
+    ADD COLUMN event_response_zstd blob NULL AFTER event_response;
+ALTER TABLE saga_db.outbox_event_archive
+    MODIFY COLUMN payload json NULL,
+    ADD COLUMN payload_zstd blob NULL AFTER payload;
+
+-- payload_dictionary: PayloadDictionaryTrainer 가 최근 payload 로 학습한 zstd dictionary. id 는 zstd dictionary id 이고
+-- frame header 에 같은 값이 들어간다. 그 dictionary 로 압축한 row 가 남아 있는 동안은 지우지 말 것
+CREATE TABLE saga_db.payload_dictionary (
+    id bigint NOT NULL PRIMARY KEY,
+    dictionary blob NOT NULL,
+    created_at datetime(6) NOT NULL
+);
+
+-- outbox_event: relay 는 claim 을 IN_FLIGHT 로 commit 한 뒤 broker 응답을 기다린다. lease_until 이 지나면 다시 PENDING 으로 돌린다.
+-- status 가 enum 으로 만들어진 schema 도 IN_FLIGHT 를 받도록 varchar 로 맞춘다
+ALTER TABLE saga_db.outbox_event
+    MODIFY COLUMN status varchar(20) NOT NULL,
+    ADD COLUMN lease_until datetime(6) NULL AFTER published_at;
+ALTER TABLE saga_db.outbox_event_archive
+    MODIFY COLUMN status varchar(20) NOT NULL,
+    ADD COLUMN lease_until datetime(6) NULL AFTER published_at;
+
+-- saga_step: 기동 시 SagaStepTimeoutScheduler 가 IN_PROGRESS/COMPENSATING step 을 상태별 keyset 으로 읽어 timing wheel 을 다시 채운다
+ALTER TABLE saga_db.saga_step
+    ADD INDEX idx_saga_step_status_id (status, id);
@@ -1,29 +1,45 @@
 package queue.kafka.order.config;
 
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
+import org.springframework.kafka.listener.ContainerProperties;
 
 import java.util.HashMap;
 
 @Configuration
+@RequiredArgsConstructor
+@EnableConfigurationProperties(KafkaListenerConcurrencyProperties.class)
 public class KafkaConfig {
+    private final KafkaListenerConcurrencyProperties listenerConcurrency;
 
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
     @Bean
     public ProducerFactory<String, String> producerFactory() {
         var config = new HashMap<String, Object>();
         config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        // outbox relay 가 한 배치를 연속으로 send 하므로 in-flight 요청이 여러 개여도 순서가 유지되도록 한다
+        config.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        config.put(ProducerConfig.ACKS_CONFIG, "all");
+        config.put(ProducerConfig.LINGER_MS_CONFIG, 5);
         return new DefaultKafkaProducerFactory<>(config);
     }
 
@@ -47,6 +63,47 @@ public class KafkaConfig {
     public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
         var factory = new ConcurrentKafkaListenerContainerFactory<String, String>();
         factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(listenerConcurrency.getConcurrency());
+        configureListenerTaskExecutor(factory);
+        // tracer 가 있으면 record header 의 trace 를 이어받아 listener 를 span 안에서 부른다
+        factory.getContainerProperties().setObservationEnabled(true);
+        // 토픽별 partition 수에 맞춰 listener 마다 consumer 수를 따로 잡는다
+        factory.setContainerCustomizer(container ->
+            container.setConcurrency(listenerConcurrency.concurrencyFor(container.getContainerProperties().getTopics())));
         return factory;
     }
+
+    /**
+     * Container factory for listeners that hand records off to another thread and acknowledge them
+     * out of order. With async acks the container only commits a partition up to the lowest offset
+     * that has not been acknowledged yet, so a record still in flight is redelivered after a crash
+     * or rebalance even if later records of the same partition already finished.
+     *
+     * A {@link ConsumerRebalanceListener} bean, if the application defines one, is told about the
+     * partitions these containers get assigned.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> asyncAckKafkaListenerContainerFactory(
+            ObjectProvider<ConsumerRebalanceListener> rebalanceListener) {
+        var factory = new ConcurrentKafkaListenerContainerFactory<String, String>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(listenerConcurrency.getConcurrency());
+        configureListenerTaskExecutor(factory);
+        factory.setContainerCustomizer(container ->
+            container.setConcurrency(listenerConcurrency.concurrencyFor(container.getContainerProperties().getTopics())));
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+        rebalanceListener.ifUnique(factory.getContainerProperties()::setConsumerRebalanceListener);
+        return factory;
+    }
+
+    private void configureListenerTaskExecutor(ConcurrentKafkaListenerContainerFactory<String, String> factory) {
+        if (!virtualThreads) {
+            return;
+        }
+        // 직접 만든 factory 에는 boot 의 virtual thread 자동 설정이 적용되지 않으므로 consumer thread 를 여기서 바꾼다
+        var executor = new SimpleAsyncTaskExecutor("kafka-listener-");
+        executor.setVirtualThreads(true);
+        factory.getContainerProperties().setListenerTaskExecutor(executor);
+    }
 }
\ No newline at end of file
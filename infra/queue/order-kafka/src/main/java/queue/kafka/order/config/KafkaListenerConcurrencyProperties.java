@@ -0,0 +1,33 @@
+package queue.kafka.order.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Listener container concurrency, sized per topic.
+ *
+ * Every saga message is keyed by sagaId, so a partition carries whole sagas and one consumer
+ * thread per partition is enough to keep each saga ordered. Concurrency above the partition
+ * count of a topic only leaves idle consumers, so size {@code topics} to the partition count.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "kafka.listener")
+public class KafkaListenerConcurrencyProperties {
+    private int concurrency = 1;
+    private Map<String, Integer> topics = new HashMap<>();
+
+    public int concurrencyFor(String... listenerTopics) {
+        int resolved = 0;
+        if (listenerTopics != null) {
+            for (String topic : listenerTopics) {
+                resolved = Math.max(resolved, topics.getOrDefault(topic, 0));
+            }
+        }
+        return resolved > 0 ? resolved : concurrency;
+    }
+}
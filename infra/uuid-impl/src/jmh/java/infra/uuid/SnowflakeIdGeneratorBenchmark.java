@@ -0,0 +1,57 @@
+package infra.uuid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded comparison of the CAS based generator against the old synchronized one.
+ *
+ * A single node can only issue 4096 IDs per millisecond, so with {@code work = 0} both
+ * implementations end up waiting for the next millisecond. {@code work} burns some CPU between
+ * calls to model callers that generate IDs at a realistic rate, which is where lock contention
+ * shows up.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class SnowflakeIdGeneratorBenchmark {
+    private final SnowflakeIdGenerator casGenerator = new SnowflakeIdGenerator(1L);
+    private final SynchronizedSnowflakeIdGenerator synchronizedGenerator = new SynchronizedSnowflakeIdGenerator(1L);
+
+    @Param({"0", "500"})
+    public long work;
+
+    @Benchmark
+    public long synchronizedNextId() {
+        Blackhole.consumeCPU(work);
+        return synchronizedGenerator.nextId();
+    }
+
+    @Benchmark
+    public long casNextId() {
+        Blackhole.consumeCPU(work);
+        return casGenerator.nextId();
+    }
+
+    @Benchmark
+    public long casNextIds16() {
+        Blackhole.consumeCPU(work);
+        return casGenerator.nextIds(16).sum();
+    }
+}
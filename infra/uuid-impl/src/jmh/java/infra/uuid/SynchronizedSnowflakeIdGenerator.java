@@ -0,0 +1,40 @@
+package infra.uuid;
+
+/**
+ * The previous {@code synchronized} Snowflake implementation, kept as the benchmark baseline.
+ */
+class SynchronizedSnowflakeIdGenerator {
+    private static final long EPOCH = 1672531200000L;
+    private static final int NODE_ID_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = NODE_ID_BITS + SEQUENCE_BITS;
+    private static final int NODE_ID_SHIFT = SEQUENCE_BITS;
+
+    private final long nodeId;
+    private long lastTimestamp = -1L;
+    private long sequence = 0L;
+
+    SynchronizedSnowflakeIdGenerator(long nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    synchronized long nextId() {
+        long currentTimestamp = System.currentTimeMillis();
+        if (currentTimestamp < lastTimestamp) {
+            throw new IllegalStateException("Clock moved backwards");
+        }
+        if (currentTimestamp == lastTimestamp) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                while (currentTimestamp <= lastTimestamp) {
+                    currentTimestamp = System.currentTimeMillis();
+                }
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = currentTimestamp;
+        return ((currentTimestamp - EPOCH) << TIMESTAMP_SHIFT) | (nodeId << NODE_ID_SHIFT) | sequence;
+    }
+}
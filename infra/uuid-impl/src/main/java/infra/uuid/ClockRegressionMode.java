@@ -0,0 +1,16 @@
+package infra.uuid;
+
+/**
+ * How {@link SnowflakeIdGenerator} reacts when the wall clock moves backwards.
+ */
+public enum ClockRegressionMode {
+    /**
+     * Refuse to generate IDs until the wall clock has caught up again.
+     */
+    STRICT,
+
+    /**
+     * Keep issuing monotonic IDs from the logical clock within the borrow-ahead window.
+     */
+    TOLERANT
+}
@@ -1,9 +1,19 @@
 package infra.uuid;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import support.uuid.UuidGenerator;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
 /**
  * Snowflake ID Generator implementation.
  * Generates unique IDs based on Twitter's Snowflake algorithm.
@@ -12,41 +22,77 @@ import support.uuid.UuidGenerator;
  * - 41 bits for timestamp (milliseconds since custom epoch)
  * - 10 bits for node ID (machine/worker identifier)
  * - 12 bits for sequence number (per millisecond counter)
+ *
+ * The last issued timestamp and sequence are packed into a single {@link AtomicLong}
+ * so IDs are handed out with a CAS instead of a lock.
+ *
+ * In {@link ClockRegressionMode#TOLERANT} mode the packed timestamp acts as a logical clock:
+ * when the wall clock steps backwards, or the sequence of the current millisecond is exhausted,
+ * IDs keep being issued from the logical clock as long as it stays at most {@code maxBorrowMs}
+ * ahead of the wall clock. The node must stay down for longer than that window on restart,
+ * otherwise it could reissue IDs it borrowed before the restart.
  */
 @Component("snowflake")
-public class SnowflakeIdGenerator implements UuidGenerator {
+public class SnowflakeIdGenerator implements UuidGenerator, MeterBinder {
     // Custom epoch (January 1, 2023 00:00:00 UTC)
-    private static final long EPOCH = 1672531200000L;
+    static final long EPOCH = 1672531200000L;
     
     // Bit allocation
-    private static final int NODE_ID_BITS = 10;
-    private static final int SEQUENCE_BITS = 12;
+    static final int NODE_ID_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
     
     // Maximum values
-    private static final long MAX_NODE_ID = (1L << NODE_ID_BITS) - 1;
-    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    static final long MAX_NODE_ID = (1L << NODE_ID_BITS) - 1;
+    static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
     
     // Bit shifts
-    private static final int TIMESTAMP_SHIFT = NODE_ID_BITS + SEQUENCE_BITS;
-    private static final int NODE_ID_SHIFT = SEQUENCE_BITS;
+    static final int TIMESTAMP_SHIFT = NODE_ID_BITS + SEQUENCE_BITS;
+    static final int NODE_ID_SHIFT = SEQUENCE_BITS;
+
+    // Sequence 가 소진됐을 때 다음 millisecond 까지 spin 하지 않고 잠깐 park 한다
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
     
     // Instance variables
     private final long nodeId;
-    private long lastTimestamp = -1L;
-    private long sequence = 0L;
+    private final ClockRegressionMode clockRegressionMode;
+    private final long maxBorrowMs;
+    // (timestamp - EPOCH) << SEQUENCE_BITS | sequence of the last issued ID
+    private final AtomicLong state = new AtomicLong();
+    private final LongAdder regressionsAbsorbed = new LongAdder();
+    private final LongAdder borrowedMillis = new LongAdder();
     
     /**
-     * Constructor with node ID.
+     * Constructor with node ID, refusing to generate IDs when the clock moves backwards.
      * 
      * @param nodeId the node ID (0-1023)
      * @throws IllegalArgumentException if nodeId is invalid
      */
-    public SnowflakeIdGenerator(@Value("${uuid.node-id}") Long nodeId) {
+    public SnowflakeIdGenerator(Long nodeId) {
+        this(nodeId, ClockRegressionMode.STRICT, 0L);
+    }
+
+    /**
+     * Constructor with node ID and clock regression handling.
+     *
+     * @param nodeId the node ID (0-1023)
+     * @param clockRegressionMode how to react when the clock moves backwards
+     * @param maxBorrowMs how far the logical clock may run ahead of the wall clock in tolerant mode
+     * @throws IllegalArgumentException if nodeId or maxBorrowMs is invalid
+     */
+    @Autowired
+    public SnowflakeIdGenerator(@Value("${uuid.node-id}") Long nodeId,
+                                @Value("${uuid.clock-regression.mode:strict}") ClockRegressionMode clockRegressionMode,
+                                @Value("${uuid.clock-regression.max-borrow-ms:1000}") long maxBorrowMs) {
         if (nodeId < 0 || nodeId > MAX_NODE_ID) {
             throw new IllegalArgumentException(
                     String.format("Node ID must be between 0 and %d", MAX_NODE_ID));
         }
+        if (maxBorrowMs < 0) {
+            throw new IllegalArgumentException("maxBorrowMs must not be negative: " + maxBorrowMs);
+        }
         this.nodeId = nodeId;
+        this.clockRegressionMode = clockRegressionMode;
+        this.maxBorrowMs = maxBorrowMs;
     }
     
     /**
@@ -55,55 +101,126 @@ public class SnowflakeIdGenerator implements UuidGenerator {
      * @return a new unique ID
      */
     @Override
-    public synchronized long nextId() {
-        long currentTimestamp = getCurrentTimestamp();
-        
-        // Handle clock moving backwards
-        if (currentTimestamp < lastTimestamp) {
-            throw new IllegalStateException(
-                    "Clock moved backwards. Refusing to generate ID for " + 
-                    (lastTimestamp - currentTimestamp) + " milliseconds");
+    public long nextId() {
+        return compose(reserve(1));
+    }
+
+    /**
+     * Reserves {@code count} IDs, taking as many consecutive sequence numbers per millisecond
+     * as are left with a single CAS.
+     *
+     * @param count the number of IDs to reserve
+     * @return the reserved IDs in ascending order
+     */
+    @Override
+    public LongStream nextIds(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
         }
-        
-        // Handle multiple requests within the same millisecond
-        if (currentTimestamp == lastTimestamp) {
-            sequence = (sequence + 1) & MAX_SEQUENCE;
-            // Sequence overflow in the same millisecond
-            if (sequence == 0) {
-                // Wait until next millisecond
-                currentTimestamp = waitForNextMillisecond(lastTimestamp);
+        long[] ids = new long[count];
+        int filled = 0;
+        while (filled < count) {
+            long first = reserve(count - filled);
+            long last = first + reservedCount(first, count - filled) - 1;
+            for (long packed = first; packed <= last; packed++) {
+                ids[filled++] = compose(packed);
             }
-        } else {
-            // Reset sequence for new millisecond
-            sequence = 0;
         }
-        
-        lastTimestamp = currentTimestamp;
-        
-        // Compose the ID from the components
-        return ((currentTimestamp - EPOCH) << TIMESTAMP_SHIFT) |
+        return LongStream.of(ids);
+    }
+
+    /**
+     * Atomically advances the packed state by up to {@code wanted} sequence numbers.
+     *
+     * @param wanted the number of sequence numbers the caller wants
+     * @return the packed timestamp/sequence of the first reserved ID
+     */
+    private long reserve(int wanted) {
+        boolean tolerant = clockRegressionMode == ClockRegressionMode.TOLERANT;
+        while (true) {
+            // state 를 먼저 읽어야 그 이후에 읽은 현재 시각이 state 의 timestamp 보다 작아지지 않는다
+            long current = state.get();
+            long lastTimestamp = current >>> SEQUENCE_BITS;
+            long currentTimestamp = getCurrentTimestamp() - EPOCH;
+
+            // Handle clock moving backwards
+            boolean regressed = currentTimestamp < lastTimestamp;
+            if (regressed && (!tolerant || lastTimestamp - currentTimestamp > maxBorrowMs)) {
+                throw new IllegalStateException(
+                        "Clock moved backwards. Refusing to generate ID for " + 
+                        (lastTimestamp - currentTimestamp) + " milliseconds");
+            }
+
+            long first;
+            if (currentTimestamp > lastTimestamp) {
+                // Reset sequence for new millisecond
+                first = currentTimestamp << SEQUENCE_BITS;
+            } else if ((current & MAX_SEQUENCE) != MAX_SEQUENCE) {
+                first = current + 1;
+            } else if (tolerant && lastTimestamp + 1 - currentTimestamp <= maxBorrowMs) {
+                // Sequence overflow: borrow the next logical millisecond
+                first = (lastTimestamp + 1) << SEQUENCE_BITS;
+            } else {
+                // Sequence overflow: wait until the wall clock catches up
+                LockSupport.parkNanos(PARK_NANOS);
+                continue;
+            }
+
+            if (state.compareAndSet(current, first + reservedCount(first, wanted) - 1)) {
+                if (regressed) {
+                    regressionsAbsorbed.increment();
+                }
+                if ((first >>> SEQUENCE_BITS) > Math.max(lastTimestamp, currentTimestamp)) {
+                    borrowedMillis.increment();
+                }
+                return first;
+            }
+        }
+    }
+
+    private static int reservedCount(long first, int wanted) {
+        return (int) Math.min(MAX_SEQUENCE - (first & MAX_SEQUENCE) + 1, wanted);
+    }
+
+    /**
+     * Compose the ID from the packed timestamp/sequence and the node ID.
+     */
+    private long compose(long packed) {
+        return ((packed >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) |
                (nodeId << NODE_ID_SHIFT) |
-               sequence;
+               (packed & MAX_SEQUENCE);
     }
     
     /**
-     * Get current timestamp in milliseconds.
+     * Get current timestamp in milliseconds. Package-private so tests can drive the clock.
      */
-    private long getCurrentTimestamp() {
+    long getCurrentTimestamp() {
         return System.currentTimeMillis();
     }
     
     /**
-     * Wait until the next millisecond.
-     * 
-     * @param lastTimestamp the last timestamp
-     * @return the next timestamp
+     * Number of ID reservations that were served from the logical clock while the wall clock
+     * was behind it.
      */
-    private long waitForNextMillisecond(long lastTimestamp) {
-        long timestamp = getCurrentTimestamp();
-        while (timestamp <= lastTimestamp) {
-            timestamp = getCurrentTimestamp();
-        }
-        return timestamp;
+    public long getRegressionsAbsorbed() {
+        return regressionsAbsorbed.sum();
+    }
+
+    /**
+     * Number of milliseconds the logical clock was advanced ahead of the wall clock.
+     */
+    public long getBorrowedMillis() {
+        return borrowedMillis.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("uuid.snowflake.clock.regressions.absorbed", this, SnowflakeIdGenerator::getRegressionsAbsorbed)
+            .description("ID reservations served from the logical clock while the wall clock was behind")
+            .register(registry);
+        FunctionCounter.builder("uuid.snowflake.clock.borrowed.millis", this, SnowflakeIdGenerator::getBorrowedMillis)
+            .description("Milliseconds the logical clock was advanced ahead of the wall clock")
+            .baseUnit("milliseconds")
+            .register(registry);
     }
-}
\ No newline at end of file
+}
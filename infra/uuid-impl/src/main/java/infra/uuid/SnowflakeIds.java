@@ -0,0 +1,61 @@
+package infra.uuid;
+
+import java.time.Instant;
+
+import static infra.uuid.SnowflakeIdGenerator.EPOCH;
+import static infra.uuid.SnowflakeIdGenerator.MAX_NODE_ID;
+import static infra.uuid.SnowflakeIdGenerator.MAX_SEQUENCE;
+import static infra.uuid.SnowflakeIdGenerator.NODE_ID_SHIFT;
+import static infra.uuid.SnowflakeIdGenerator.TIMESTAMP_SHIFT;
+
+/**
+ * Decodes IDs issued by {@link SnowflakeIdGenerator} and builds ID bounds for time windows.
+ *
+ * The timestamp occupies the high bits, so IDs sort by the millisecond they were issued in:
+ * every ID issued in {@code [from, to)} lies in {@code [lowerBound(from), lowerBound(to))}.
+ * A time-range query on a Snowflake primary key can therefore scan a range of the key instead of
+ * needing a separate {@code created_at} index.
+ *
+ * In {@link ClockRegressionMode#TOLERANT} mode an ID can carry a timestamp up to {@code maxBorrowMs}
+ * ahead of the wall clock it was issued at, which bounds how far off a window built here can be.
+ */
+public final class SnowflakeIds {
+
+    private SnowflakeIds() {
+    }
+
+    /**
+     * @param id a Snowflake ID
+     * @return the millisecond the ID was issued in
+     */
+    public static Instant timestampOf(long id) {
+        return Instant.ofEpochMilli((id >>> TIMESTAMP_SHIFT) + EPOCH);
+    }
+
+    /**
+     * @param id a Snowflake ID
+     * @return the node that issued the ID
+     */
+    public static long nodeIdOf(long id) {
+        return (id >>> NODE_ID_SHIFT) & MAX_NODE_ID;
+    }
+
+    /**
+     * @param id a Snowflake ID
+     * @return the sequence number of the ID within its millisecond
+     */
+    public static long sequenceOf(long id) {
+        return id & MAX_SEQUENCE;
+    }
+
+    /**
+     * Returns the smallest ID that can be issued at {@code at}. Instants before the custom epoch map to 0.
+     * Also serves as the exclusive end of a window: every ID issued before {@code at} is less than this.
+     *
+     * @param at the start of a time window, inclusive, or its end, exclusive
+     * @return every ID issued at or after {@code at} is greater than or equal to this
+     */
+    public static long lowerBound(Instant at) {
+        return Math.max(0, at.toEpochMilli() - EPOCH) << TIMESTAMP_SHIFT;
+    }
+}
@@ -0,0 +1,180 @@
+package infra.uuid;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static infra.uuid.SnowflakeIdGenerator.EPOCH;
+import static infra.uuid.SnowflakeIdGenerator.MAX_NODE_ID;
+import static infra.uuid.SnowflakeIdGenerator.MAX_SEQUENCE;
+import static infra.uuid.SnowflakeIdGenerator.NODE_ID_SHIFT;
+import static infra.uuid.SnowflakeIdGenerator.TIMESTAMP_SHIFT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnowflakeIdGeneratorTest {
+    private static final long NODE_ID = 7;
+    private static final long NOW = EPOCH + 1_000_000;
+    private static final int PER_MILLI = (int) MAX_SEQUENCE + 1;
+
+    @Test
+    void issuesUniqueIncreasingIdsAcrossThreads() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(NODE_ID);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                List<Long> ids = new ArrayList<>();
+                for (int i = 0; i < 2_000; i++) {
+                    // 한 개씩 받는 경로와 여러 개를 한 번에 reserve 하는 경로를 섞는다
+                    if (i % 2 == 0) {
+                        ids.add(generator.nextId());
+                    } else {
+                        generator.nextIds(37).forEach(ids::add);
+                    }
+                }
+                return ids;
+            }));
+        }
+
+        Set<Long> all = new HashSet<>();
+        int total = 0;
+        for (Future<List<Long>> result : results) {
+            List<Long> ids = result.get(30, TimeUnit.SECONDS);
+            // 한 thread 가 받은 ID 는 받은 순서대로 커진다
+            assertThat(ids).isSorted().doesNotHaveDuplicates();
+            all.addAll(ids);
+            total += ids.size();
+        }
+        executor.shutdown();
+
+        assertThat(all).hasSize(total);
+        assertThat(all).allMatch(id -> ((id >>> NODE_ID_SHIFT) & MAX_NODE_ID) == NODE_ID);
+    }
+
+    @Test
+    void reservesBatchesLargerThanOneMillisecond() {
+        ManualClockGenerator generator = new ManualClockGenerator(ClockRegressionMode.STRICT, 0);
+        // sequence 를 다 쓰면 다음 millisecond 까지 park 하므로 clock 을 따로 밀어준다
+        CompletableFuture<long[]> batch = CompletableFuture.supplyAsync(() -> generator.nextIds(PER_MILLI * 2 + 10).toArray());
+        while (!batch.isDone()) {
+            generator.now++;
+            sleepMillis(1);
+        }
+        long[] ids = batch.join();
+
+        assertThat(ids).hasSize(PER_MILLI * 2 + 10).isSorted().doesNotHaveDuplicates();
+        assertThat(timestamp(ids[0])).isGreaterThanOrEqualTo(NOW);
+        assertThat(timestamp(ids[PER_MILLI])).isGreaterThan(timestamp(ids[PER_MILLI - 1]));
+        assertThat(timestamp(ids[PER_MILLI * 2])).isGreaterThan(timestamp(ids[PER_MILLI * 2 - 1]));
+        assertThat(generator.nextId()).isGreaterThan(ids[ids.length - 1]);
+    }
+
+    @Test
+    void strictModeRefusesToIssueIdsWhenTheClockMovesBackwards() {
+        ManualClockGenerator generator = new ManualClockGenerator(ClockRegressionMode.STRICT, 1_000);
+        generator.nextId();
+
+        generator.now = NOW - 1;
+
+        assertThatThrownBy(generator::nextId)
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("Clock moved backwards");
+        assertThatThrownBy(() -> generator.nextIds(3)).isInstanceOf(IllegalStateException.class);
+        assertThat(generator.getRegressionsAbsorbed()).isZero();
+    }
+
+    @Test
+    void tolerantModeAbsorbsRegressionsWithinMaxBorrowMs() {
+        ManualClockGenerator generator = new ManualClockGenerator(ClockRegressionMode.TOLERANT, 5);
+        long before = generator.nextId();
+
+        generator.now = NOW - 5;
+        long during = generator.nextId();
+
+        // 뒤로 간 wall clock 대신 마지막 timestamp 의 다음 sequence 로 이어간다
+        assertThat(during).isEqualTo(before + 1);
+        assertThat(generator.getRegressionsAbsorbed()).isEqualTo(1);
+        assertThat(generator.getBorrowedMillis()).isZero();
+
+        generator.now = NOW - 6;
+        assertThatThrownBy(generator::nextId).isInstanceOf(IllegalStateException.class);
+        assertThat(generator.getRegressionsAbsorbed()).isEqualTo(1);
+    }
+
+    @Test
+    void tolerantModeBorrowsUpToMaxBorrowMsThenParks() throws Exception {
+        ManualClockGenerator generator = new ManualClockGenerator(ClockRegressionMode.TOLERANT, 2);
+        long[] ids = generator.nextIds(PER_MILLI * 3).toArray();
+
+        // wall clock 이 멈춰 있어도 NOW + 1, NOW + 2 를 빌려 쓴다
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+        assertThat(timestamp(ids[0])).isEqualTo(NOW);
+        assertThat(timestamp(ids[PER_MILLI])).isEqualTo(NOW + 1);
+        assertThat(timestamp(ids[ids.length - 1])).isEqualTo(NOW + 2);
+        assertThat(generator.getBorrowedMillis()).isEqualTo(2);
+        // NOW + 2 를 빌릴 때는 wall clock 이 logical clock (NOW + 1) 보다 뒤에 있었다
+        assertThat(generator.getRegressionsAbsorbed()).isEqualTo(1);
+
+        // maxBorrowMs 만큼 앞서 있으면 wall clock 이 따라올 때까지 기다린다
+        CompletableFuture<Long> parked = CompletableFuture.supplyAsync(generator::nextId);
+        sleepMillis(50);
+        assertThat(parked).isNotDone();
+
+        generator.now = NOW + 1;
+        long next = parked.get(5, TimeUnit.SECONDS);
+
+        assertThat(timestamp(next)).isEqualTo(NOW + 3);
+        assertThat(next).isGreaterThan(ids[ids.length - 1]);
+        assertThat(generator.getBorrowedMillis()).isEqualTo(3);
+        assertThat(generator.getRegressionsAbsorbed()).isEqualTo(2);
+    }
+
+    @Test
+    void tolerantModeCountsRegressionsThatBorrowTheNextMillisecond() {
+        ManualClockGenerator generator = new ManualClockGenerator(ClockRegressionMode.TOLERANT, 3);
+        generator.nextIds(PER_MILLI).toArray();
+
+        generator.now = NOW - 1;
+        long borrowed = generator.nextId();
+
+        assertThat(timestamp(borrowed)).isEqualTo(NOW + 1);
+        assertThat(generator.getRegressionsAbsorbed()).isEqualTo(1);
+        assertThat(generator.getBorrowedMillis()).isEqualTo(1);
+    }
+
+    private static long timestamp(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    private static void sleepMillis(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class ManualClockGenerator extends SnowflakeIdGenerator {
+        private volatile long now = NOW;
+
+        ManualClockGenerator(ClockRegressionMode clockRegressionMode, long maxBorrowMs) {
+            super(NODE_ID, clockRegressionMode, maxBorrowMs);
+        }
+
+        @Override
+        long getCurrentTimestamp() {
+            return now;
+        }
+    }
+}
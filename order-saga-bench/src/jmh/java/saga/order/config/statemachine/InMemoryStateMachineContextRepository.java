@@ -0,0 +1,39 @@
+package saga.order.config.statemachine;
+
+import saga.order.domain.entity.StateMachineContextEntity;
+import saga.order.domain.repository.StateMachineContextJpaRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map backed stand-in for {@link StateMachineContextJpaRepository} so persistence cost in the
+ * benchmarks is the codec and entity work only, not a database round trip.
+ */
+final class InMemoryStateMachineContextRepository {
+
+    private InMemoryStateMachineContextRepository() {
+    }
+
+    static StateMachineContextJpaRepository create() {
+        Map<Long, StateMachineContextEntity> rows = new ConcurrentHashMap<>();
+        return (StateMachineContextJpaRepository) Proxy.newProxyInstance(
+            StateMachineContextJpaRepository.class.getClassLoader(),
+            new Class<?>[]{StateMachineContextJpaRepository.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "save" -> {
+                    StateMachineContextEntity entity = (StateMachineContextEntity) args[0];
+                    rows.put(entity.getId(), entity);
+                    yield entity;
+                }
+                case "findById" -> Optional.ofNullable(rows.get((Long) args[0]));
+                case "count" -> (long) rows.size();
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                case "toString" -> "InMemoryStateMachineContextRepository";
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+    }
+}
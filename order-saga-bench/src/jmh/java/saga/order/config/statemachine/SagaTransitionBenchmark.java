@@ -0,0 +1,151 @@
+package saga.order.config.statemachine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.config.StateMachineFactory;
+import reactor.core.publisher.Mono;
+import saga.order.config.OrderStateMachineConfig;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.StateMachineContextJpaRepository;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+import saga.order.metrics.SagaStateMachineMonitor;
+import saga.order.sagacommand.InventoryCommandGateway;
+import saga.order.sagacommand.PaymentCommandGateway;
+import saga.order.tracing.SagaTracing;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the steps every saga listener runs per event: build the machine, restore it from the
+ * persisted context, send the event, build the context back and write it.
+ *
+ * The real {@link OrderStateMachineConfig} is used. Command gateways and Kafka are mocked, and the
+ * measured transition ({@code PAYMENT_REQUESTED -> FAILED}) has no action, so only the state machine
+ * and persistence code is measured. Persistence goes to {@link InMemoryStateMachineContextRepository}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaTransitionBenchmark {
+    private static final String SAGA_ID = "512093847120384001";
+    // write 벤치마크는 restore 가 읽는 row 를 덮어쓰지 않도록 다른 saga 로 쓴다
+    private static final String WRITE_ID = "512093847120384002";
+
+    @Param({"binary", "json"})
+    public String codec;
+
+    private AnnotationConfigApplicationContext applicationContext;
+    private StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory;
+    private CustomStateMachinePersister stateMachinePersister;
+    private JpaPersistingStateMachinePersist persist;
+
+    private StateMachine<OrderSagaState, OrderSagaEvent> restoredMachine;
+    private StateMachineContext<OrderSagaState, OrderSagaEvent> context;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        applicationContext = new AnnotationConfigApplicationContext();
+        applicationContext.getEnvironment().getSystemProperties().put("statemachine.persist.codec", codec);
+        applicationContext.registerBean(KafkaTemplate.class, () -> Mockito.mock(KafkaTemplate.class, Answers.RETURNS_MOCKS));
+        applicationContext.registerBean(PaymentCommandGateway.class, () -> Mockito.mock(PaymentCommandGateway.class, Answers.RETURNS_MOCKS));
+        applicationContext.registerBean(InventoryCommandGateway.class, () -> Mockito.mock(InventoryCommandGateway.class, Answers.RETURNS_MOCKS));
+        applicationContext.registerBean(StateMachineContextJpaRepository.class, InMemoryStateMachineContextRepository::create);
+        applicationContext.registerBean(SagaInstanceJpaRepository.class, () -> Mockito.mock(SagaInstanceJpaRepository.class));
+        applicationContext.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        applicationContext.register(OrderStateMachineConfig.class, JpaPersistingStateMachinePersist.class, SagaStateMachineMonitor.class, SagaTracing.class);
+        applicationContext.refresh();
+
+        stateMachineFactory = applicationContext.getBean(StateMachineFactory.class);
+        persist = applicationContext.getBean(JpaPersistingStateMachinePersist.class);
+        stateMachinePersister = new CustomStateMachinePersister(persist);
+
+        CustomExtendedState extendedState = new CustomExtendedState();
+        extendedState.getVariables().put("retryCount", 0);
+        persist.write(new CustomStateMachineContext(OrderSagaState.PAYMENT_REQUESTED, null, null,
+            extendedState, new HashMap<>(), SAGA_ID), SAGA_ID);
+
+        restoredMachine = stateMachineFactory.getStateMachine(SAGA_ID);
+        stateMachinePersister.restore(restoredMachine, SAGA_ID);
+        context = stateMachinePersister.buildStateMachineContext(restoredMachine);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.getProperties().remove("statemachine.persist.codec");
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public StateMachine<OrderSagaState, OrderSagaEvent> getStateMachine() {
+        return stateMachineFactory.getStateMachine(SAGA_ID);
+    }
+
+    @Benchmark
+    public StateMachine<OrderSagaState, OrderSagaEvent> restore() throws Exception {
+        return stateMachinePersister.restore(restoredMachine, SAGA_ID);
+    }
+
+    @Benchmark
+    public StateMachine<OrderSagaState, OrderSagaEvent> restoreAndSendEvent() throws Exception {
+        stateMachinePersister.restore(restoredMachine, SAGA_ID);
+        restoredMachine.sendEvent(Mono.just(MessageBuilder
+                .withPayload(OrderSagaEvent.PAYMENT_FAILURE)
+                .setHeader("sagaId", SAGA_ID)
+                .build()))
+            .blockLast();
+        return restoredMachine;
+    }
+
+    @Benchmark
+    public StateMachineContext<OrderSagaState, OrderSagaEvent> buildStateMachineContext() {
+        return stateMachinePersister.buildStateMachineContext(restoredMachine);
+    }
+
+    @Benchmark
+    public StateMachineContext<OrderSagaState, OrderSagaEvent> write() throws Exception {
+        persist.write(context, WRITE_ID);
+        return context;
+    }
+
+    /**
+     * The whole per-event path as the listeners run it on a cache miss.
+     */
+    @Benchmark
+    public StateMachine<OrderSagaState, OrderSagaEvent> listenerPath() throws Exception {
+        StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(SAGA_ID);
+        stateMachinePersister.restore(stateMachine, SAGA_ID);
+        stateMachine.sendEvent(Mono.just(MessageBuilder
+                .withPayload(OrderSagaEvent.PAYMENT_FAILURE)
+                .setHeader("sagaId", SAGA_ID)
+                .build()))
+            .blockLast();
+        persist.write(stateMachinePersister.buildStateMachineContext(stateMachine), WRITE_ID);
+        return stateMachine;
+    }
+}
@@ -0,0 +1,69 @@
+package saga.order.config.statemachine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.statemachine.StateMachineContext;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy Jackson context format with the binary codec on a context shaped like the
+ * ones {@link CustomStateMachinePersister} builds for the order saga.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StateMachineContextCodecBenchmark {
+    private final StateMachineContextCodec jsonCodec = new JsonStateMachineContextCodec();
+    private final StateMachineContextCodec binaryCodec = new BinaryStateMachineContextCodec();
+
+    private StateMachineContext<OrderSagaState, OrderSagaEvent> context;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        CustomExtendedState extendedState = new CustomExtendedState();
+        extendedState.getVariables().put("orderId", "ORD-20240601-000123");
+        extendedState.getVariables().put("retryCount", 0);
+
+        context = new CustomStateMachineContext(OrderSagaState.INVENTORY_RESRVING, null, null, extendedState,
+            new HashMap<>(), "512093847120384001");
+        json = jsonCodec.encode(context);
+        binary = binaryCodec.encode(context);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws Exception {
+        return jsonCodec.encode(context);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws Exception {
+        return binaryCodec.encode(context);
+    }
+
+    @Benchmark
+    public StateMachineContext<OrderSagaState, OrderSagaEvent> decodeJson() throws Exception {
+        return jsonCodec.decode(json);
+    }
+
+    @Benchmark
+    public StateMachineContext<OrderSagaState, OrderSagaEvent> decodeBinary() throws Exception {
+        return binaryCodec.decode(binary);
+    }
+}
@@ -0,0 +1,162 @@
+package saga.order.domain;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares Snowflake keys stored as {@code varchar} (the decimal string, as before) with {@code bigint} on a
+ * {@code saga_step}-shaped table in a file-backed H2 database: primary key {@code id}, an index on
+ * {@code saga_id} and one on {@code (status, id)}, four steps per saga.
+ *
+ * The size of the table and its indexes is printed once the rows are loaded; the benchmarks time a primary
+ * key lookup, the steps of one saga through the {@code saga_id} index, and one page of the {@code (status, id)}
+ * keyset scan that recovery and the timing wheel rebuild run. H2 only shows the direction; on MySQL the sizes
+ * before and after the migration are in {@code mysql.innodb_index_stats} ({@code stat_name = 'size'}, in pages).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SagaKeyWidthBenchmark {
+    private static final int STEPS_PER_SAGA = 4;
+    private static final int PAGE_SIZE = 100;
+    // 2026-01-01 무렵의 timestamp 부분. 실제 id 처럼 18 자리가 된다
+    private static final long FIRST_MILLIS = 94_608_000_000L;
+
+    @Param({"varchar", "bigint"})
+    public String keyType;
+
+    @Param({"200000"})
+    public int steps;
+
+    private Path directory;
+    private Connection connection;
+    private PreparedStatement findById;
+    private PreparedStatement findBySagaId;
+    private PreparedStatement findPendingAfter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("saga-key-width");
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:file:" + directory.resolve(keyType) + ";MODE=MySQL");
+        connection = h2.getConnection();
+        String key = "varchar".equals(keyType) ? "varchar(255)" : "bigint";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE saga_step (id " + key + " NOT NULL PRIMARY KEY, saga_id " + key + " NOT NULL,"
+                + " status varchar(20) NOT NULL, step_name varchar(100) NOT NULL)");
+            statement.execute("CREATE INDEX idx_saga_step_saga_id ON saga_step (saga_id)");
+            statement.execute("CREATE INDEX idx_saga_step_status_id ON saga_step (status, id)");
+        }
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO saga_step VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < steps; i++) {
+                bind(insert, 1, stepId(i));
+                bind(insert, 2, stepId(i - i % STEPS_PER_SAGA));
+                insert.setString(3, i % 10 == 0 ? "IN_PROGRESS" : "DONE");
+                insert.setString(4, "inventoryReserve");
+                insert.addBatch();
+                if (i % 1_000 == 999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CHECKPOINT");
+            try (ResultSet size = statement.executeQuery("SELECT DISK_SPACE_USED('SAGA_STEP')")) {
+                size.next();
+                long bytes = size.getLong(1);
+                System.out.printf("%n%s keys: saga_step and its indexes take %,d bytes (%.1f per row)%n", keyType, bytes, (double) bytes / steps);
+            }
+        }
+
+        findById = connection.prepareStatement("SELECT status FROM saga_step WHERE id = ?");
+        findBySagaId = connection.prepareStatement("SELECT id, status FROM saga_step WHERE saga_id = ?");
+        findPendingAfter = connection.prepareStatement(
+            "SELECT id FROM saga_step WHERE status = 'IN_PROGRESS' AND id > ? ORDER BY id LIMIT " + PAGE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException, IOException {
+        connection.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String findById() throws SQLException {
+        bind(findById, 1, stepId(ThreadLocalRandom.current().nextInt(steps)));
+        try (ResultSet rs = findById.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    @Benchmark
+    public int findBySagaId() throws SQLException {
+        int saga = ThreadLocalRandom.current().nextInt(steps / STEPS_PER_SAGA);
+        bind(findBySagaId, 1, stepId(saga * STEPS_PER_SAGA));
+        return count(findBySagaId);
+    }
+
+    @Benchmark
+    public int findPendingAfter() throws SQLException {
+        bind(findPendingAfter, 1, stepId(ThreadLocalRandom.current().nextInt(steps - PAGE_SIZE * 10)));
+        return count(findPendingAfter);
+    }
+
+    // 한 millisecond 에 몇 개씩 발급된 것처럼 timestamp 와 sequence 를 나눈다
+    private static long stepId(int i) {
+        return ((FIRST_MILLIS + i / 8) << 22) | (i % 8);
+    }
+
+    private void bind(PreparedStatement statement, int index, long id) throws SQLException {
+        if ("varchar".equals(keyType)) {
+            statement.setString(index, String.valueOf(id));
+        } else {
+            statement.setLong(index, id);
+        }
+    }
+
+    private static int count(PreparedStatement statement) throws SQLException {
+        int rows = 0;
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,206 @@
+package saga.order.payload;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.h2.jdbcx.JdbcDataSource;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import saga.order.domain.repository.PayloadDictionaryJpaRepository;
+import support.command.payload.CommandPayload;
+import support.command.payload.InventoryReservePayload;
+import support.command.payload.PaymentRequestPayload;
+import support.event.event.OrderCreatedEvent;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the three ways {@link PayloadCodec} can store saga payloads on a file-backed H2 database: the JSON
+ * as is ({@code json}), a zstd frame without a dictionary ({@code zstd}) and a frame compressed with a dictionary
+ * trained like {@link PayloadDictionaryTrainer} does ({@code zstd-dict}).
+ *
+ * Each saga gets an {@code OrderCreatedEvent} context of one to four lines and a payment plus one inventory
+ * command per line, with random ids and amounts, so only the keys and the shape repeat. The average payload
+ * size and the size of the table are printed once the rows are loaded; the benchmarks time
+ * {@link PayloadCodec#write} of a context and reading a random payload back by primary key and decoding it.
+ * H2 keeps JSON as text and MySQL as its binary JSON format, which is not smaller, so the saving on MySQL is
+ * at least the one printed; there the table sizes are in {@code information_schema.tables}
+ * ({@code data_length}) and the pages a table keeps in the buffer pool in
+ * {@code information_schema.innodb_buffer_page}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadCompressionBenchmark {
+    private static final int DICTIONARY_SIZE = 16 * 1024;
+    private static final int TRAINING_SAGAS = 2_000;
+    // InnoDB 기본 page 크기. buffer pool 에 page 당 몇 row 가 들어가는지 어림한다
+    private static final int PAGE_SIZE = 16 * 1024;
+
+    @Param({"json", "zstd", "zstd-dict"})
+    public String format;
+
+    @Param({"50000"})
+    public int sagas;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Random random = new Random(42);
+    private Path directory;
+    private Connection connection;
+    private PreparedStatement findPayload;
+    private PayloadCodec payloadCodec;
+    private String context;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        payloadCodec = new PayloadCodec(Mockito.mock(PayloadDictionaryJpaRepository.class), "json".equals(format) ? "none" : "zstd", 3);
+        if ("zstd-dict".equals(format)) {
+            ZstdDictTrainer trainer = new ZstdDictTrainer(DICTIONARY_SIZE * 100, DICTIONARY_SIZE);
+            for (int i = 0; i < TRAINING_SAGAS; i++) {
+                for (String payload : sagaPayloads()) {
+                    trainer.addSample(payload.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            byte[] dictionary = trainer.trainSamples();
+            payloadCodec.use(Zstd.getDictIdFromDict(dictionary), dictionary);
+        }
+
+        directory = Files.createTempDirectory("saga-payload");
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:file:" + directory.resolve(format) + ";MODE=MySQL");
+        connection = h2.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            // blob 은 H2 가 작은 값도 LOB 으로 따로 둘 수 있어서 크기 비교에는 varbinary 를 쓴다
+            statement.execute("CREATE TABLE saga_payload (id bigint NOT NULL PRIMARY KEY, "
+                + "payload varchar(4096) NULL, payload_zstd varbinary(4096) NULL)");
+        }
+
+        long rawBytes = 0;
+        long storedBytes = 0;
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO saga_payload VALUES (?, ?, ?)")) {
+            for (int i = 0; i < sagas; i++) {
+                for (String payload : sagaPayloads()) {
+                    PayloadCodec.Stored stored = payloadCodec.write(payload);
+                    insert.setLong(1, nextId++);
+                    insert.setString(2, stored.json());
+                    insert.setBytes(3, stored.frame());
+                    insert.addBatch();
+                    rawBytes += payload.getBytes(StandardCharsets.UTF_8).length;
+                    storedBytes += stored.frame() == null ? stored.json().getBytes(StandardCharsets.UTF_8).length : stored.frame().length;
+                }
+                if (i % 1_000 == 999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CHECKPOINT");
+            try (ResultSet size = statement.executeQuery("SELECT DISK_SPACE_USED('SAGA_PAYLOAD')")) {
+                size.next();
+                long bytes = size.getLong(1);
+                System.out.printf("%n%s: %,d payloads, %.1f -> %.1f bytes per payload, table %,d bytes (%.1f per row, ~%d rows per %d KB page)%n",
+                    format, nextId, (double) rawBytes / nextId, (double) storedBytes / nextId, bytes, (double) bytes / nextId,
+                    PAGE_SIZE * nextId / bytes, PAGE_SIZE / 1024);
+            }
+        }
+
+        findPayload = connection.prepareStatement("SELECT payload, payload_zstd FROM saga_payload WHERE id = ?");
+        context = sagaPayloads().get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException, IOException {
+        connection.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public PayloadCodec.Stored write() {
+        return payloadCodec.write(context);
+    }
+
+    @Benchmark
+    public String readById() throws SQLException {
+        findPayload.setLong(1, ThreadLocalRandom.current().nextLong(nextId));
+        try (ResultSet rs = findPayload.executeQuery()) {
+            return rs.next() ? payloadCodec.read(rs.getString(1), rs.getBytes(2)) : null;
+        }
+    }
+
+    // 한 saga 가 남기는 payload: context, 결제 command, line 마다 재고 command
+    private List<String> sagaPayloads() throws IOException {
+        long sagaId = snowflake();
+        String orderId = UUID.randomUUID().toString();
+        int lines = 1 + random.nextInt(4);
+        List<OrderCreatedEvent.OrderItem> items = new ArrayList<>(lines);
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < lines; i++) {
+            BigDecimal unitPrice = BigDecimal.valueOf(1_000 + random.nextInt(99_000));
+            int quantity = 1 + random.nextInt(3);
+            items.add(new OrderCreatedEvent.OrderItem("product-" + random.nextInt(10_000), quantity, unitPrice));
+            total = total.add(unitPrice.multiply(BigDecimal.valueOf(quantity)));
+        }
+        OrderCreatedEvent event = new OrderCreatedEvent(orderId, "customer-" + random.nextInt(1_000_000),
+            "pm-" + random.nextInt(1_000_000), UUID.randomUUID().toString(), UUID.randomUUID().toString(), total, "KRW", items);
+
+        List<String> payloads = new ArrayList<>(lines + 2);
+        payloads.add(mapper.writeValueAsString(event));
+        payloads.add(command(new PaymentRequestPayload(orderId, event.customerId(), String.valueOf(snowflake()),
+            event.paymentKey(), total, event.paymentMethodId(), "KRW"), sagaId));
+        for (OrderCreatedEvent.OrderItem item : items) {
+            payloads.add(command(new InventoryReservePayload(String.valueOf(snowflake()), item.productId(), orderId, item.quantity()), sagaId));
+        }
+        return payloads;
+    }
+
+    private String command(CommandPayload command, long sagaId) throws IOException {
+        command.setSagaId(sagaId);
+        command.setStepId(snowflake());
+        return mapper.writeValueAsString(command);
+    }
+
+    // 18 자리 Snowflake 처럼 보이는 id
+    private long snowflake() {
+        return (94_608_000_000L + random.nextInt(1 << 30)) << 22 | random.nextInt(1 << 22);
+    }
+}
@@ -0,0 +1,52 @@
+package saga.order.sagacommand;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps a {@link DataSource} and counts every statement execution (one JDBC round trip each,
+ * a whole batch counting once) so the benchmarks can report statements per order.
+ */
+final class CountingDataSource {
+    private static final Set<String> EXECUTE_METHODS = Set.of(
+        "execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch"
+    );
+
+    private CountingDataSource() {
+    }
+
+    static DataSource wrap(DataSource target, LongAdder executions) {
+        return proxy(DataSource.class, target, executions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object target, LongAdder executions) {
+        return (T) Proxy.newProxyInstance(
+            CountingDataSource.class.getClassLoader(),
+            new Class<?>[]{type},
+            (proxy, method, args) -> {
+                if (EXECUTE_METHODS.contains(method.getName())) {
+                    executions.increment();
+                }
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                Class<?> returnType = method.getReturnType();
+                if (result instanceof Connection && returnType == Connection.class) {
+                    return proxy(Connection.class, result, executions);
+                }
+                if (result instanceof Statement && Statement.class.isAssignableFrom(returnType)) {
+                    return proxy(returnType, result, executions);
+                }
+                return result;
+            });
+    }
+}
@@ -0,0 +1,260 @@
+package saga.order.sagacommand;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.action.Action;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import saga.order.domain.SagaStepTracker;
+import saga.order.domain.entity.OutboxEventEntity;
+import saga.order.domain.entity.SagaInstanceEntity;
+import saga.order.domain.entity.SagaStepEntity;
+import saga.order.domain.repository.OutboxEventJpaRepository;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.SagaStepJpaRepository;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+import saga.order.metrics.ParticipantLatencyRecorder;
+import saga.order.payload.PayloadCodec;
+import saga.order.timeout.SagaStepTimeouts;
+import saga.order.tracing.SagaTracing;
+import support.command.payload.InventoryReservePayload;
+import support.event.event.OrderCreatedEvent;
+import support.uuid.UuidGenerator;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the write path of {@code inventoryReserveCommand} for one order against an in-memory H2
+ * database, comparing the per-item {@code saveAndFlush} loop the gateway used to run with the batched
+ * write path.
+ *
+ * <ul>
+ *     <li>{@code perItem} reproduces the old loop: assigned ids made every save a merge (SELECT then
+ *     INSERT), every step was flushed on its own, and JDBC batching was off.</li>
+ *     <li>{@code batched} runs the real gateway action with {@code hibernate.jdbc.batch_size} and
+ *     ordered inserts, as configured in the application profiles.</li>
+ * </ul>
+ *
+ * Every statement execution is counted on the JDBC connection (a batch counts once), and the number of
+ * statements per order is printed when a trial ends. Each invocation is rolled back after the flush so
+ * the database does not grow.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InventoryReserveWriteBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"1", "20", "200"})
+    public int items;
+
+    @Param({"perItem", "batched"})
+    public String writePath;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong ids = new AtomicLong(512093847120384001L);
+    private final LongAdder executions = new LongAdder();
+    private long orders;
+
+    private AnnotationConfigApplicationContext applicationContext;
+    private EntityManagerFactory entityManagerFactory;
+    private TransactionTemplate transactionTemplate;
+    private SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private SagaStepJpaRepository sagaStepJpaRepository;
+    private OutboxEventJpaRepository outboxEventJpaRepository;
+    private Action<OrderSagaState, OrderSagaEvent> inventoryReserveCommand;
+    private String orderContext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:saga_" + writePath + "_" + items + ";MODE=MySQL;INIT=CREATE SCHEMA IF NOT EXISTS saga_db\\;SET SCHEMA saga_db;DB_CLOSE_DELAY=-1");
+        DataSource dataSource = CountingDataSource.wrap(h2, executions);
+
+        boolean batched = "batched".equals(writePath);
+        applicationContext = new AnnotationConfigApplicationContext();
+        applicationContext.registerBean(DataSource.class, () -> dataSource);
+        applicationContext.registerBean("entityManagerFactory", LocalContainerEntityManagerFactoryBean.class, () -> {
+            LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+            factory.setDataSource(dataSource);
+            factory.setPersistenceProviderClass(HibernatePersistenceProvider.class);
+            factory.setPackagesToScan("saga.order.domain.entity");
+            factory.setJpaPropertyMap(Map.of(
+                "hibernate.hbm2ddl.auto", "create",
+                "hibernate.jdbc.batch_size", String.valueOf(batched ? BATCH_SIZE : 0),
+                "hibernate.order_inserts", String.valueOf(batched),
+                "hibernate.order_updates", String.valueOf(batched)
+            ));
+            return factory;
+        });
+        applicationContext.registerBean("transactionManager", PlatformTransactionManager.class,
+            () -> new JpaTransactionManager(applicationContext.getBean(EntityManagerFactory.class)));
+        applicationContext.registerBean(UuidGenerator.class, () -> ids::incrementAndGet);
+        applicationContext.registerBean(SagaStepTimeouts.class,
+            () -> new SagaStepTimeouts(new SimpleMeterRegistry(), Duration.ofMillis(100), Duration.ofSeconds(30), Duration.ofMinutes(2)));
+        applicationContext.registerBean(ParticipantLatencyRecorder.class,
+            () -> new ParticipantLatencyRecorder(new SimpleMeterRegistry(), Duration.ofHours(1)));
+        applicationContext.register(RepositoryConfig.class, SagaStepTracker.class, SagaTracing.class, PayloadCodec.class, InventoryCommandGateway.class);
+        applicationContext.refresh();
+
+        entityManagerFactory = applicationContext.getBean(EntityManagerFactory.class);
+        transactionTemplate = new TransactionTemplate(applicationContext.getBean(PlatformTransactionManager.class));
+        sagaInstanceJpaRepository = applicationContext.getBean(SagaInstanceJpaRepository.class);
+        sagaStepJpaRepository = applicationContext.getBean(SagaStepJpaRepository.class);
+        outboxEventJpaRepository = applicationContext.getBean(OutboxEventJpaRepository.class);
+        inventoryReserveCommand = applicationContext.getBean(InventoryCommandGateway.class).inventoryReserveCommand();
+
+        List<OrderCreatedEvent.OrderItem> orderItems = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            orderItems.add(new OrderCreatedEvent.OrderItem("product-" + i, 1, BigDecimal.TEN));
+        }
+        orderContext = mapper.writeValueAsString(new OrderCreatedEvent(
+            "order-1", "customer-1", "card", "tx-1", "payment-key", BigDecimal.TEN.multiply(BigDecimal.valueOf(items)), "KRW", orderItems
+        ));
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        executions.reset();
+        orders = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        System.out.printf("%n%s items=%d: %.1f statements per order%n", writePath, items, (double) executions.sum() / orders);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public void reserveInventory() {
+        long sagaId = ids.incrementAndGet();
+        transactionTemplate.executeWithoutResult(status -> {
+            EntityManager entityManager = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+            entityManager.persist(new SagaInstanceEntity(
+                sagaId, "ORDER", "order-" + sagaId, OrderSagaState.INVENTORY_RESRVING, orderContext, null,
+                LocalDateTime.now(), LocalDateTime.now(), new ArrayList<>(), 0, 0
+            ));
+
+            if ("batched".equals(writePath)) {
+                inventoryReserveCommand.execute(stateContext(sagaId));
+            } else {
+                perItemReserve(sagaId);
+            }
+
+            status.flush();
+            status.setRollbackOnly();
+        });
+        orders++;
+    }
+
+    /**
+     * The gateway loop before batching, kept here as the baseline.
+     */
+    private void perItemReserve(long sagaId) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId).orElseThrow();
+        OrderCreatedEvent request;
+        try {
+            request = mapper.readValue(sagaInstance.getContext(), OrderCreatedEvent.class);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        int executionOrder = sagaInstance.getSagaSteps() == null ? 1 : sagaInstance.getSagaSteps().size();
+        for (OrderCreatedEvent.OrderItem item : request.items()) {
+            String reservationId = String.valueOf(ids.incrementAndGet());
+            InventoryReservePayload payload = new InventoryReservePayload(reservationId, item.productId(), request.orderId(), item.quantity());
+            payload.setSagaId(sagaId);
+            payload.setStepId(ids.incrementAndGet());
+
+            String command;
+            try {
+                command = mapper.writeValueAsString(payload);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+
+            SagaStepEntity sagaStep = SagaStepEntity.builder()
+                .id(payload.getStepId())
+                .sagaInstance(sagaInstance)
+                .stepName("inventoryReserve")
+                .aggregateId(reservationId)
+                .aggregateType("inventory")
+                .stepType(SagaStepEntity.StepType.FORWARD)
+                .status(SagaStepEntity.StepStatus.IN_PROGRESS)
+                .executionOrder(executionOrder++)
+                .command(command)
+                .newEntity(false)
+                .build();
+            sagaStepJpaRepository.saveAndFlush(sagaStep);
+
+            outboxEventJpaRepository.save(OutboxEventEntity.builder()
+                .id(ids.incrementAndGet())
+                .topic("ord-inv-dec-cmd")
+                .messageKey(sagaId)
+                .aggregateId(reservationId)
+                .aggregateType("inventory")
+                .eventType("inventoryReserve")
+                .messageType(OutboxEventEntity.MessageType.COMMAND)
+                .payload(command)
+                .status(OutboxEventEntity.EventStatus.PENDING)
+                .createdAt(LocalDateTime.now())
+                .newEntity(false)
+                .build());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private StateContext<OrderSagaState, OrderSagaEvent> stateContext(long sagaId) {
+        StateContext<OrderSagaState, OrderSagaEvent> context = Mockito.mock(StateContext.class, Answers.RETURNS_DEEP_STUBS);
+        Mockito.when(context.getStateMachine().getId()).thenReturn(String.valueOf(sagaId));
+        return context;
+    }
+
+    @Configuration
+    @EnableJpaRepositories(basePackageClasses = SagaStepJpaRepository.class)
+    static class RepositoryConfig {
+    }
+}
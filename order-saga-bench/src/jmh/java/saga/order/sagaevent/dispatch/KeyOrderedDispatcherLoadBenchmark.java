@@ -0,0 +1,120 @@
+package saga.order.sagaevent.dispatch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.propagation.Propagator;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import saga.order.tracing.SagaTracing;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for the reply dispatch path on platform versus virtual lane threads.
+ *
+ * Every record waits {@code dbLatencyMicros} inside its transaction, which stands in for the MySQL
+ * round trips a reply listener makes, while at most {@code poolSize} transactions run at once as with
+ * the Hikari pool. One invocation dispatches {@value #RECORDS} records over {@value #SAGAS} sagas and
+ * waits until all of them are acknowledged, so the score is records per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyOrderedDispatcherLoadBenchmark {
+    private static final int RECORDS = 2_000;
+    private static final int SAGAS = 10_000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"16", "256"})
+    public int lanes;
+
+    @Param({"10", "50"})
+    public int poolSize;
+
+    @Param({"2000"})
+    public long dbLatencyMicros;
+
+    private KeyOrderedDispatcher dispatcher;
+    private ConsumerRecord<String, String>[] records;
+    private long offset;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new NoOpTransactionManager());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // record 에 stepId 가 없으므로 guard 는 repository 를 건드리지 않는다
+        dispatcher = new KeyOrderedDispatcher(
+            transactionTemplate,
+            new ReplyIdempotencyGuard(null, transactionTemplate, meterRegistry, RECORDS, Duration.ofDays(1)),
+            new SagaTracing(Tracer.NOOP, Propagator.NOOP),
+            meterRegistry,
+            lanes,
+            RECORDS,
+            1,
+            poolSize,
+            "virtual".equals(threads)
+        );
+        records = new ConsumerRecord[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            String sagaId = String.valueOf(512093847120384001L + (i * 7919L) % SAGAS);
+            records[i] = new ConsumerRecord<>("ord-pay-req-succ-evt", 0, i, sagaId, "{\"sagaId\":\"" + sagaId + "\"}");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        dispatcher.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long dispatch() throws InterruptedException {
+        CountDownLatch acknowledged = new CountDownLatch(RECORDS);
+        for (ConsumerRecord<String, String> record : records) {
+            dispatcher.dispatch(record, acknowledged::countDown, message -> Thread.sleep(dbLatencyMicros / 1000, (int) (dbLatencyMicros % 1000) * 1000));
+        }
+        acknowledged.await();
+        return offset += RECORDS;
+    }
+
+    private static final class NoOpTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package saga.order.timeout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady state of step deadlines: every operation registers one step with a 30 s timeout, and a virtual
+ * clock moves one 100 ms tick forward often enough that as many deadlines expire as are registered, so
+ * {@code pending} deadlines stay outstanding the whole time.
+ *
+ * {@code heap} is the same workload on a binary heap, which is what a {@code DelayQueue} or a
+ * {@code ScheduledThreadPoolExecutor} does per timer: O(log n) per insert and per expiry, with
+ * the heap array touched at random places once it no longer fits in cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class HierarchicalTimingWheelBenchmark {
+    private static final long TICK_MS = 100;
+    private static final long TIMEOUT_MS = 30_000;
+
+    @Param({"100000", "1000000", "4000000"})
+    public int pending;
+
+    @Param({"wheel", "heap"})
+    public String structure;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private HierarchicalTimingWheel wheel;
+    private PriorityQueue<long[]> heap;
+    private long nowMs;
+    private long nextId;
+    private long opsPerTick;
+    private long opsUntilTick;
+    private long expired;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 30 s 동안 pending 개가 쌓이는 속도로 등록한다
+        opsPerTick = Math.max(1, pending * TICK_MS / TIMEOUT_MS);
+        opsUntilTick = opsPerTick;
+        wheel = new HierarchicalTimingWheel(TICK_MS, 0);
+        heap = new PriorityQueue<>(pending, Comparator.comparingLong(timer -> timer[0]));
+        for (int i = 0; i < pending; i++) {
+            schedule(random.nextLong(TIMEOUT_MS));
+        }
+    }
+
+    @Benchmark
+    public long registerAndExpire() {
+        schedule(nowMs + TIMEOUT_MS + random.nextLong(TICK_MS));
+        if (--opsUntilTick == 0) {
+            opsUntilTick = opsPerTick;
+            nowMs += TICK_MS;
+            advance();
+        }
+        return expired;
+    }
+
+    private void schedule(long deadlineMs) {
+        long id = nextId++;
+        if ("wheel".equals(structure)) {
+            wheel.schedule(id, id, deadlineMs);
+        } else {
+            heap.add(new long[]{deadlineMs, id});
+        }
+    }
+
+    private void advance() {
+        if ("wheel".equals(structure)) {
+            expired += wheel.advance(nowMs, (id, key) -> { });
+        } else {
+            while (!heap.isEmpty() && heap.peek()[0] <= nowMs) {
+                heap.poll();
+                expired++;
+            }
+        }
+    }
+}
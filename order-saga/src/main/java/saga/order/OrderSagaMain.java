@@ -2,10 +2,12 @@ package saga.order;
 
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import static org.springframework.boot.SpringApplication.run;
 
 @SpringBootApplication
+@EnableScheduling
 @ComponentScan(basePackages = {"saga.order", "queue.kafka.order", "infra.uuid"})
 public class OrderSagaMain {
     public static void main(String[] args) {
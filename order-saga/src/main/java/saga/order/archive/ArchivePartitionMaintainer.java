@@ -0,0 +1,84 @@
+package saga.order.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Keeps the monthly {@code RANGE COLUMNS(archived_at)} partitions of the archive tables.
+ *
+ * Every archive table ends in a {@code p_future} partition ({@code MAXVALUE}). Partitions for the current
+ * month and the next {@code saga.archive.months-ahead} months are split off it while it is still empty,
+ * so the split does not move rows. Partitions older than {@code saga.archive.keep-months} are dropped,
+ * which only removes their files instead of deleting row by row.
+ */
+@Component
+@ConditionalOnProperty(name = "saga.archive.enabled", havingValue = "true")
+@Slf4j
+public class ArchivePartitionMaintainer {
+    private static final List<String> ARCHIVE_TABLES = List.of(
+        "saga_instance_archive", "saga_step_archive", "outbox_event_archive", "saga_state_machine_archive", "saga_journal_archive");
+
+    private static final String FUTURE = "p_future";
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int monthsAhead;
+    private final int keepMonths;
+
+    public ArchivePartitionMaintainer(JdbcTemplate jdbcTemplate,
+                                      @Value("${saga.archive.months-ahead:2}") int monthsAhead,
+                                      @Value("${saga.archive.keep-months:12}") int keepMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.monthsAhead = monthsAhead;
+        this.keepMonths = keepMonths;
+    }
+
+    @Scheduled(fixedDelayString = "${saga.archive.partition-interval-ms:3600000}")
+    public void maintain() {
+        YearMonth current = YearMonth.now();
+        for (String table : ARCHIVE_TABLES) {
+            List<String> partitions = partitionsOf(table);
+            for (YearMonth month = current; !month.isAfter(current.plusMonths(monthsAhead)); month = month.plusMonths(1)) {
+                if (!partitions.contains(month.format(NAME))) {
+                    addPartition(table, month);
+                }
+            }
+            String oldestKept = current.minusMonths(keepMonths - 1L).format(NAME);
+            for (String partition : partitions) {
+                // pYYYYMM 은 이름 순서가 곧 시간 순서다
+                if (!FUTURE.equals(partition) && partition.compareTo(oldestKept) < 0) {
+                    dropPartition(table, partition);
+                }
+            }
+        }
+    }
+
+    private List<String> partitionsOf(String table) {
+        return jdbcTemplate.queryForList("""
+            SELECT partition_name FROM information_schema.partitions
+            WHERE table_schema = DATABASE() AND table_name = ? AND partition_name IS NOT NULL
+            ORDER BY partition_ordinal_position
+        """, String.class, table);
+    }
+
+    private void addPartition(String table, YearMonth month) {
+        // 이미 지난 달의 partition 은 만들지 않으므로 p_future 앞에 끼우는 것으로 충분하다
+        jdbcTemplate.execute("ALTER TABLE " + table + " REORGANIZE PARTITION " + FUTURE + " INTO ("
+            + "PARTITION " + month.format(NAME) + " VALUES LESS THAN ('" + month.plusMonths(1).atDay(1) + "'), "
+            + "PARTITION " + FUTURE + " VALUES LESS THAN (MAXVALUE))");
+        log.info("Added partition {} to {}", month.format(NAME), table);
+    }
+
+    private void dropPartition(String table, String partition) {
+        jdbcTemplate.execute("ALTER TABLE " + table + " DROP PARTITION " + partition);
+        log.info("Dropped archive partition {} of {}", partition, table);
+    }
+}
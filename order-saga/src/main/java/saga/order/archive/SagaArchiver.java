@@ -0,0 +1,130 @@
+package saga.order.archive;
+
+import infra.uuid.SnowflakeIds;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import saga.order.domain.repository.SagaArchiveJpaRepository;
+import saga.order.enums.OrderSagaState;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Moves terminal sagas ({@code ORDER_COMPLETED}, {@code COMPENSATED}, {@code FAILED}) created more than
+ * {@code saga.archive.retention} ago out of {@code saga_instance}, {@code saga_step}, {@code outbox_event},
+ * {@code saga_state_machine} and {@code saga_journal} into the partitioned archive tables. The creation time
+ * is the one embedded in the Snowflake saga id, so candidates are found with a range scan of
+ * {@code (status, id)} rather than an index on a timestamp column.
+ *
+ * Each chunk of {@code saga.archive.chunk-size} sagas is copied and deleted in one transaction, so a saga is
+ * always in exactly one of the two places. Chunks are separated by {@code saga.archive.pause} and a run
+ * stops after {@code saga.archive.max-chunks}, which keeps the delete load on the hot tables (and the
+ * replication lag it causes) bounded; a backlog is worked off over several runs.
+ *
+ * Each run first lets {@link ArchivePartitionMaintainer} add the partition of the current month, so a chunk
+ * never lands in {@code p_future}, which would make that partition impossible to split off without moving
+ * rows. If the partitions cannot be maintained the run is skipped.
+ *
+ * The retention has to be longer than the retention of the order topic: intake only detects a redelivered
+ * order whose saga was archived if the order is still in its {@link saga.order.domain.OrderIntakeFilter}.
+ */
+@Component
+@ConditionalOnProperty(name = "saga.archive.enabled", havingValue = "true")
+@Slf4j
+public class SagaArchiver {
+    private static final List<String> TERMINAL = List.of(
+        OrderSagaState.ORDER_COMPLETED.name(), OrderSagaState.COMPENSATED.name(), OrderSagaState.FAILED.name());
+
+    private final SagaArchiveJpaRepository sagaArchiveJpaRepository;
+    private final ArchivePartitionMaintainer archivePartitionMaintainer;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration retention;
+    private final int chunkSize;
+    private final Duration pause;
+    private final int maxChunks;
+    private final Counter archived;
+    private final Timer chunks;
+
+    public SagaArchiver(SagaArchiveJpaRepository sagaArchiveJpaRepository,
+                        ArchivePartitionMaintainer archivePartitionMaintainer,
+                        TransactionTemplate transactionTemplate,
+                        MeterRegistry meterRegistry,
+                        @Value("${saga.archive.retention:30d}") Duration retention,
+                        @Value("${saga.archive.chunk-size:500}") int chunkSize,
+                        @Value("${saga.archive.pause:200ms}") Duration pause,
+                        @Value("${saga.archive.max-chunks:200}") int maxChunks) {
+        this.sagaArchiveJpaRepository = sagaArchiveJpaRepository;
+        this.archivePartitionMaintainer = archivePartitionMaintainer;
+        this.transactionTemplate = transactionTemplate;
+        this.retention = retention;
+        this.chunkSize = chunkSize;
+        this.pause = pause;
+        this.maxChunks = maxChunks;
+        this.archived = Counter.builder("saga.archive.sagas")
+            .description("Terminal sagas moved to the archive tables")
+            .register(meterRegistry);
+        this.chunks = Timer.builder("saga.archive.chunk")
+            .description("Time to copy and delete one chunk of terminal sagas")
+            .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${saga.archive.interval-ms:600000}")
+    public void archive() throws InterruptedException {
+        try {
+            archivePartitionMaintainer.maintain();
+        } catch (RuntimeException e) {
+            log.warn("Skipping saga archive run, the archive partitions could not be maintained", e);
+            return;
+        }
+
+        Instant before = Instant.now().minus(retention);
+        long beforeId = SnowflakeIds.lowerBound(before);
+        long started = System.nanoTime();
+        int total = 0;
+        for (int chunk = 0; chunk < maxChunks; chunk++) {
+            Integer moved = chunks.record(() -> transactionTemplate.execute(status -> archiveChunk(beforeId)));
+            total += moved == null ? 0 : moved;
+            if (moved == null || moved < chunkSize) {
+                break;
+            }
+            Thread.sleep(pause);
+        }
+
+        if (total > 0) {
+            log.info("Archived {} terminal sagas created before {} in {} ms", total, before, (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+
+    private int archiveChunk(long beforeId) {
+        List<Long> sagaIds = sagaArchiveJpaRepository.findArchivableIds(TERMINAL, beforeId, chunkSize);
+        if (sagaIds.isEmpty()) {
+            return 0;
+        }
+        // 한 chunk 는 같은 archived_at 으로 옮겨 같은 partition 에 들어간다
+        LocalDateTime archivedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        sagaArchiveJpaRepository.copyInstances(sagaIds, archivedAt);
+        sagaArchiveJpaRepository.copySteps(sagaIds, archivedAt);
+        sagaArchiveJpaRepository.copyOutboxEvents(sagaIds, archivedAt);
+        sagaArchiveJpaRepository.copyStateMachines(sagaIds, archivedAt);
+        sagaArchiveJpaRepository.copyJournal(sagaIds, archivedAt);
+
+        sagaArchiveJpaRepository.deleteSteps(sagaIds);
+        sagaArchiveJpaRepository.deleteOutboxEvents(sagaIds);
+        sagaArchiveJpaRepository.deleteStateMachines(sagaIds);
+        sagaArchiveJpaRepository.deleteJournal(sagaIds);
+        sagaArchiveJpaRepository.deleteInstances(sagaIds);
+
+        archived.increment(sagaIds.size());
+        return sagaIds.size();
+    }
+}
@@ -0,0 +1,67 @@
+package saga.order.archive;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import saga.order.domain.entity.SagaInstanceEntity;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.SagaSummary;
+import saga.order.enums.OrderSagaState;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Finds a saga in {@code saga_instance} and, if it is not there and archival is enabled, in
+ * {@code saga_instance_archive}. The archive is only read on a miss, so lookups of live sagas cost what
+ * they did before; an archive lookup probes the {@code (id, archived_at)} primary key or the
+ * {@code order_id} index once per partition.
+ */
+@Component
+public class SagaLookup {
+    private static final RowMapper<SagaSummary> ARCHIVED = (rs, rowNum) -> new SagaSummary(
+        rs.getLong("id"),
+        rs.getString("order_id"),
+        OrderSagaState.valueOf(rs.getString("status")),
+        rs.getObject("created_at", LocalDateTime.class),
+        rs.getObject("archived_at", LocalDateTime.class));
+
+    private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean archiveEnabled;
+
+    public SagaLookup(SagaInstanceJpaRepository sagaInstanceJpaRepository,
+                      JdbcTemplate jdbcTemplate,
+                      @Value("${saga.archive.enabled:false}") boolean archiveEnabled) {
+        this.sagaInstanceJpaRepository = sagaInstanceJpaRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.archiveEnabled = archiveEnabled;
+    }
+
+    public Optional<SagaSummary> findBySagaId(long sagaId) {
+        return sagaInstanceJpaRepository.findById(sagaId)
+            .map(SagaLookup::summaryOf)
+            .or(() -> findArchived("id", sagaId));
+    }
+
+    public Optional<SagaSummary> findByOrderId(String orderId) {
+        return sagaInstanceJpaRepository.findByOrderId(orderId)
+            .map(SagaLookup::summaryOf)
+            .or(() -> findArchived("order_id", orderId));
+    }
+
+    private Optional<SagaSummary> findArchived(String column, Object value) {
+        if (!archiveEnabled) {
+            return Optional.empty();
+        }
+        return jdbcTemplate.query("SELECT id, order_id, status, created_at, archived_at FROM saga_instance_archive WHERE "
+                + column + " = ? LIMIT 1", ARCHIVED, value)
+            .stream()
+            .findFirst();
+    }
+
+    private static SagaSummary summaryOf(SagaInstanceEntity saga) {
+        return new SagaSummary(saga.getId(), saga.getOrderId(), saga.getStatus(), saga.getCreatedAt(), null);
+    }
+}
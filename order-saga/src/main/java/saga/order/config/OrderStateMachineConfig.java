@@ -1,22 +1,33 @@
 package saga.order.config;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.config.EnableStateMachineFactory;
 import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter;
 import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
 import org.springframework.statemachine.listener.StateMachineListenerAdapter;
-import org.springframework.statemachine.persist.StateMachinePersister;
-import org.springframework.statemachine.state.State;
+import saga.order.config.statemachine.BinaryStateMachineContextCodec;
 import saga.order.config.statemachine.CustomStateMachinePersister;
+import saga.order.config.statemachine.JournalingStateMachinePersist;
 import saga.order.config.statemachine.JpaPersistingStateMachinePersist;
+import saga.order.config.statemachine.JsonStateMachineContextCodec;
+import saga.order.config.statemachine.SagaStateMachinePersister;
+import saga.order.config.statemachine.StateMachineContextCodec;
+import saga.order.config.statemachine.TimedStateMachinePersister;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
+import saga.order.metrics.SagaStateMachineMonitor;
 import saga.order.sagacommand.InventoryCommandGateway;
 import saga.order.sagacommand.PaymentCommandGateway;
+import saga.order.tracing.SagaTracing;
 
 import java.util.EnumSet;
 
@@ -30,6 +41,8 @@ public class OrderStateMachineConfig extends EnumStateMachineConfigurerAdapter<O
     private final KafkaTemplate<String, String> kafkaTemplate;
     private final PaymentCommandGateway paymentCommandGatewayGW;
     private final InventoryCommandGateway inventoryCommandGateway;
+    private final SagaStateMachineMonitor sagaStateMachineMonitor;
+    private final SagaTracing sagaTracing;
 
     @Override
     public void configure(StateMachineStateConfigurer<OrderSagaState, OrderSagaEvent> states) throws Exception {
@@ -50,14 +63,14 @@ public class OrderStateMachineConfig extends EnumStateMachineConfigurerAdapter<O
             .source(ORDER_CREATED)
             .event(START_ORDER)
             .target(PAYMENT_REQUESTED)
-            .action(paymentCommandGatewayGW.paymentRequestCommand())
+            .action(sagaTracing.traced("paymentRequestCommand", paymentCommandGatewayGW.paymentRequestCommand()))
 
             .and()
             .withExternal()
             .source(PAYMENT_REQUESTED)
             .event(PAYMENT_SUCCESS)
             .target(INVENTORY_RESRVING)
-            .action(inventoryCommandGateway.inventoryReserveCommand())
+            .action(sagaTracing.traced("inventoryReserveCommand", inventoryCommandGateway.inventoryReserveCommand()))
 
             .and()
             .withExternal()
@@ -76,14 +89,14 @@ public class OrderStateMachineConfig extends EnumStateMachineConfigurerAdapter<O
             .source(INVENTORY_RESRVING)
             .event(INVENTORY_FAILURE)
             .target(COMPENSATING_PAYMENT)
-            .action(paymentCommandGatewayGW.inventoryFailurePaymentCompensateCommand())
+            .action(sagaTracing.traced("inventoryFailurePaymentCompensateCommand", paymentCommandGatewayGW.inventoryFailurePaymentCompensateCommand()))
 
             .and()
             .withExternal()
             .source(COMPENSATING_PAYMENT)
             .event(PAYMENT_COMPENSATED)
             .target(COMPENSATING_INVENTORY)
-            .action(inventoryCommandGateway.inventoryFailureInventoryCompensateCommand())
+            .action(sagaTracing.traced("inventoryFailureInventoryCompensateCommand", inventoryCommandGateway.inventoryFailureInventoryCompensateCommand()))
 
             .and()
             .withExternal()
@@ -96,14 +109,44 @@ public class OrderStateMachineConfig extends EnumStateMachineConfigurerAdapter<O
             .source(COMPENSATING_PAYMENT)
             .event(PAYMENT_COMPENSATE_FAIL)
             .target(FAILED)
-            .action(paymentCommandGatewayGW.paymentInventoryCompensateFailDLQ())
+            .action(sagaTracing.traced("paymentInventoryCompensateFailDLQ", paymentCommandGatewayGW.paymentInventoryCompensateFailDLQ()))
 
             .and()
             .withExternal()
             .source(COMPENSATING_INVENTORY)
             .event(INVENTORY_COMPENSATE_FAIL)
             .target(FAILED)
-            .action(inventoryCommandGateway.inventoryInventoryCompensateFailDLQ())
+            .action(sagaTracing.traced("inventoryInventoryCompensateFailDLQ", inventoryCommandGateway.inventoryInventoryCompensateFailDLQ()))
+
+            // 결제 결과를 알 수 없으므로 FAILED 로 끝낸다. 늦게 온 결제 성공은 PaymentRequestListener 가 환불 command 로 되돌린다
+            .and()
+            .withExternal()
+            .source(PAYMENT_REQUESTED)
+            .event(PAYMENT_TIMEOUT)
+            .target(FAILED)
+            .action(sagaTracing.traced("paymentInventoryCompensateFailDLQ", paymentCommandGatewayGW.paymentInventoryCompensateFailDLQ()))
+
+            // 응답 없는 재고 line 은 실패와 똑같이 보상한다. 재고 보상은 DONE 인 inventoryReserve step 에만 나간다
+            .and()
+            .withExternal()
+            .source(INVENTORY_RESRVING)
+            .event(INVENTORY_TIMEOUT)
+            .target(COMPENSATING_PAYMENT)
+            .action(sagaTracing.traced("inventoryFailurePaymentCompensateCommand", paymentCommandGatewayGW.inventoryFailurePaymentCompensateCommand()))
+
+            .and()
+            .withExternal()
+            .source(COMPENSATING_PAYMENT)
+            .event(PAYMENT_COMPENSATE_TIMEOUT)
+            .target(FAILED)
+            .action(sagaTracing.traced("paymentInventoryCompensateFailDLQ", paymentCommandGatewayGW.paymentInventoryCompensateFailDLQ()))
+
+            .and()
+            .withExternal()
+            .source(COMPENSATING_INVENTORY)
+            .event(INVENTORY_COMPENSATE_TIMEOUT)
+            .target(FAILED)
+            .action(sagaTracing.traced("inventoryInventoryCompensateFailDLQ", inventoryCommandGateway.inventoryInventoryCompensateFailDLQ()))
         ;
     }
 
@@ -115,20 +158,36 @@ public class OrderStateMachineConfig extends EnumStateMachineConfigurerAdapter<O
             .autoStartup(false)
             .listener(new StateMachineListenerAdapter<>() {
                 @Override
-                public void stateChanged(State<OrderSagaState, OrderSagaEvent> from, State<OrderSagaState, OrderSagaEvent> to) {
-                    if (to != null) {
-                        kafkaTemplate.send("state", to.getId().name());
+                public void stateContext(StateContext<OrderSagaState, OrderSagaEvent> stateContext) {
+                    // machine id(sagaId) 로 key 를 잡아 같은 saga 의 상태 변경이 한 partition 에서 순서대로 보이게 한다
+                    if (stateContext.getStage() == StateContext.Stage.STATE_CHANGED && stateContext.getTarget() != null) {
+                        kafkaTemplate.send("state", stateContext.getStateMachine().getId(), stateContext.getTarget().getId().name());
                     }
                 }
-            });
+            })
+            .and()
+            .withMonitoring()
+            .monitor(sagaStateMachineMonitor);
     }
 
 
 
     @Bean
-    public StateMachinePersister<OrderSagaState, OrderSagaEvent, String> stateMachinePersister(
-        JpaPersistingStateMachinePersist persist) {
-        return new CustomStateMachinePersister(persist);
+    public StateMachineContextCodec stateMachineContextCodec(@Value("${statemachine.persist.codec:binary}") String codec) {
+        return "json".equalsIgnoreCase(codec) ? new JsonStateMachineContextCodec() : new BinaryStateMachineContextCodec();
+    }
+
+    /**
+     * {@code statemachine.persist.mode=journal} appends each transition to {@code saga_journal} and only
+     * snapshots the context periodically; the default rewrites the context on every transition.
+     */
+    @Bean
+    public SagaStateMachinePersister stateMachinePersister(
+        JpaPersistingStateMachinePersist snapshotPersist, ObjectProvider<JournalingStateMachinePersist> journalPersist,
+        MeterRegistry meterRegistry) {
+        StateMachinePersist<OrderSagaState, OrderSagaEvent, String> persist = journalPersist.getIfAvailable();
+        return new TimedStateMachinePersister(new CustomStateMachinePersister(persist != null ? persist : snapshotPersist),
+            meterRegistry, sagaTracing);
     }
 
 }
@@ -0,0 +1,211 @@
+package saga.order.config.statemachine;
+
+import org.springframework.statemachine.StateMachineContext;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary codec for the flat order saga machine.
+ *
+ * Layout (version 1):
+ * <pre>
+ * magic(1) version(1) state(1) event(1) id(bool + utf)
+ * historyStates(count(1) + [key(1) value(1)]*)
+ * eventHeaders(map) extendedState(map)
+ * </pre>
+ * Enum values are written as {@code ordinal + 1} so that {@code 0} can stand for {@code null},
+ * which means new {@link OrderSagaState}/{@link OrderSagaEvent} constants must only be appended.
+ * A map is written as an int count ({@code -1} for {@code null}) followed by typed key/value pairs.
+ * Only scalar variable types are supported; anything else is rejected on write instead of being
+ * silently dropped.
+ */
+public class BinaryStateMachineContextCodec implements StateMachineContextCodec {
+    static final byte MAGIC = (byte) 0xC5;
+    static final byte VERSION_1 = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_STATE = 6;
+    private static final byte TYPE_EVENT = 7;
+
+    private static final OrderSagaState[] STATES = OrderSagaState.values();
+    private static final OrderSagaEvent[] EVENTS = OrderSagaEvent.values();
+
+    /**
+     * Returns whether the given bytes were written by this codec.
+     *
+     * @param bytes the stored bytes
+     * @return true if the bytes start with the binary codec magic
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length > 1 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(StateMachineContext<OrderSagaState, OrderSagaEvent> context) throws IOException {
+        if (context.getChilds() != null && !context.getChilds().isEmpty()) {
+            throw new IllegalArgumentException("Binary codec does not support nested state machine contexts: " + context.getId());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION_1);
+        out.writeByte(ordinalOf(context.getState()));
+        out.writeByte(ordinalOf(context.getEvent()));
+
+        out.writeBoolean(context.getId() != null);
+        if (context.getId() != null) {
+            out.writeUTF(context.getId());
+        }
+
+        Map<OrderSagaState, OrderSagaState> historyStates = context.getHistoryStates();
+        int historyCount = historyStates == null ? 0 : historyStates.size();
+        out.writeByte(historyCount);
+        if (historyCount > 0) {
+            for (Map.Entry<OrderSagaState, OrderSagaState> entry : historyStates.entrySet()) {
+                out.writeByte(ordinalOf(entry.getKey()));
+                out.writeByte(ordinalOf(entry.getValue()));
+            }
+        }
+
+        writeMap(out, context.getEventHeaders());
+        writeMap(out, context.getExtendedState() == null ? null : context.getExtendedState().getVariables());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public StateMachineContext<OrderSagaState, OrderSagaEvent> decode(byte[] bytes) throws IOException {
+        if (!isBinary(bytes)) {
+            throw new IOException("Not a binary state machine context");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.readByte();
+        byte version = in.readByte();
+        if (version != VERSION_1) {
+            throw new IOException("Unsupported state machine context version: " + version);
+        }
+
+        OrderSagaState state = stateOf(in.readUnsignedByte());
+        OrderSagaEvent event = eventOf(in.readUnsignedByte());
+        String id = in.readBoolean() ? in.readUTF() : null;
+
+        int historyCount = in.readUnsignedByte();
+        Map<OrderSagaState, OrderSagaState> historyStates = new HashMap<>(historyCount * 2);
+        for (int i = 0; i < historyCount; i++) {
+            historyStates.put(stateOf(in.readUnsignedByte()), stateOf(in.readUnsignedByte()));
+        }
+
+        Map<Object, Object> headers = readMap(in);
+        Map<String, Object> eventHeaders = null;
+        if (headers != null) {
+            eventHeaders = new HashMap<>(headers.size() * 2);
+            for (Map.Entry<Object, Object> entry : headers.entrySet()) {
+                eventHeaders.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+        }
+
+        CustomExtendedState extendedState = new CustomExtendedState();
+        Map<Object, Object> variables = readMap(in);
+        if (variables != null) {
+            extendedState.getVariables().putAll(variables);
+        }
+
+        return new CustomStateMachineContext(state, event, eventHeaders, extendedState, historyStates, id);
+    }
+
+    private void writeMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeValue(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private Map<Object, Object> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<Object, Object> map = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(readValue(in), readValue(in));
+        }
+        return map;
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String s) {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF(s);
+        } else if (value instanceof Integer i) {
+            out.writeByte(TYPE_INT);
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(l);
+        } else if (value instanceof Boolean b) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean(b);
+        } else if (value instanceof Double d) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(d);
+        } else if (value instanceof OrderSagaState s) {
+            out.writeByte(TYPE_STATE);
+            out.writeByte(ordinalOf(s));
+        } else if (value instanceof OrderSagaEvent e) {
+            out.writeByte(TYPE_EVENT);
+            out.writeByte(ordinalOf(e));
+        } else {
+            throw new IllegalArgumentException("Unsupported state machine variable type: " + value.getClass().getName());
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case TYPE_NULL -> null;
+            case TYPE_STRING -> in.readUTF();
+            case TYPE_INT -> in.readInt();
+            case TYPE_LONG -> in.readLong();
+            case TYPE_BOOLEAN -> in.readBoolean();
+            case TYPE_DOUBLE -> in.readDouble();
+            case TYPE_STATE -> stateOf(in.readUnsignedByte());
+            case TYPE_EVENT -> eventOf(in.readUnsignedByte());
+            default -> throw new IOException("Unknown state machine variable type: " + type);
+        };
+    }
+
+    private static int ordinalOf(Enum<?> value) {
+        return value == null ? 0 : value.ordinal() + 1;
+    }
+
+    private static OrderSagaState stateOf(int ordinal) {
+        return ordinal == 0 ? null : STATES[ordinal - 1];
+    }
+
+    private static OrderSagaEvent eventOf(int ordinal) {
+        return ordinal == 0 ? null : EVENTS[ordinal - 1];
+    }
+}
@@ -1,7 +1,9 @@
 package saga.order.config.statemachine;
 
+import org.springframework.messaging.Message;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.persist.AbstractStateMachinePersister;
 import org.springframework.statemachine.region.Region;
 import org.springframework.statemachine.state.AbstractState;
@@ -9,7 +11,6 @@ import org.springframework.statemachine.state.HistoryPseudoState;
 import org.springframework.statemachine.state.PseudoState;
 import org.springframework.statemachine.state.State;
 import org.springframework.statemachine.support.AbstractStateMachine;
-import org.springframework.stereotype.Component;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
 
@@ -18,19 +19,33 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
-@Component
-public class CustomStateMachinePersister extends AbstractStateMachinePersister<OrderSagaState, OrderSagaEvent, String>  {
+public class CustomStateMachinePersister extends AbstractStateMachinePersister<OrderSagaState, OrderSagaEvent, String>
+    implements SagaStateMachinePersister {
+    private final StateMachinePersist<OrderSagaState, OrderSagaEvent, String> persist;
+
     /**
      * Instantiates a new abstract state machine persister.
      *
      * @param persist the state machine persist
      */
-    public CustomStateMachinePersister(JpaPersistingStateMachinePersist persist) {
+    public CustomStateMachinePersister(StateMachinePersist<OrderSagaState, OrderSagaEvent, String> persist) {
         super(persist);
+        this.persist = persist;
+    }
+
+    @Override
+    public void persist(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine, String sagaId, Message<OrderSagaEvent> message) throws Exception {
+        CustomStateMachineContext context = buildStateMachineContext(stateMachine);
+        context.setEvent(message.getPayload());
+        Object stepId = message.getHeaders().get(JournalingStateMachinePersist.STEP_ID_HEADER);
+        if (stepId != null) {
+            context.setEventHeaders(Map.of(JournalingStateMachinePersist.STEP_ID_HEADER, stepId.toString()));
+        }
+        persist.write(context, sagaId);
     }
 
     @Override
-    protected StateMachineContext<OrderSagaState, OrderSagaEvent> buildStateMachineContext(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine) {
+    protected CustomStateMachineContext buildStateMachineContext(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine) {
         CustomExtendedState extendedState = new CustomExtendedState();
         extendedState.getVariables().putAll(stateMachine.getExtendedState().getVariables());
 
@@ -0,0 +1,167 @@
+package saga.order.config.statemachine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import saga.order.domain.entity.SagaJournalEntity;
+import saga.order.domain.repository.SagaJournalJpaRepository;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event-sourced persistence of the saga state machines ({@code statemachine.persist.mode=journal}).
+ *
+ * Every transition appends one {@code saga_journal} row (event, from/to state, step id) instead of rewriting the
+ * context in {@code saga_state_machine}. That row is only rewritten as a snapshot every
+ * {@code statemachine.journal.snapshot-every} transitions, and on every transition that leaves extended state
+ * variables behind, because the journal only records states. Reading takes the snapshot and replays the
+ * journal entries after it.
+ *
+ * The sequence of the last entry of recently written sagas is cached, so an append does not have to read
+ * the journal first. Writes of one saga are serialized by its lane and the saga row lock; a cached
+ * sequence that is stale anyway (another node moved the saga) fails on the primary key and the handler
+ * is retried with the sequence read from the journal.
+ */
+@Component
+@ConditionalOnProperty(name = "statemachine.persist.mode", havingValue = "journal")
+@Slf4j
+public class JournalingStateMachinePersist implements StateMachinePersist<OrderSagaState, OrderSagaEvent, String> {
+    static final String STEP_ID_HEADER = "stepId";
+
+    private final SagaJournalJpaRepository journalRepository;
+    private final JpaPersistingStateMachinePersist snapshots;
+    private final int snapshotEvery;
+    private final Cache<Long, Head> heads;
+
+    public JournalingStateMachinePersist(SagaJournalJpaRepository journalRepository,
+                                         JpaPersistingStateMachinePersist snapshots,
+                                         @Value("${statemachine.journal.snapshot-every:8}") int snapshotEvery,
+                                         @Value("${statemachine.cache.maximum-size:10000}") long maximumSize) {
+        this.journalRepository = journalRepository;
+        this.snapshots = snapshots;
+        this.snapshotEvery = snapshotEvery;
+        this.heads = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .build();
+    }
+
+    @Override
+    public void write(StateMachineContext<OrderSagaState, OrderSagaEvent> context, String machineId) throws Exception {
+        long sagaId = Long.parseLong(machineId);
+        Head head = heads.getIfPresent(sagaId);
+        if (head == null) {
+            head = loadHead(sagaId);
+        }
+
+        long seq = head.seq() + 1;
+        journalRepository.save(SagaJournalEntity.builder()
+            .sagaId(sagaId)
+            .seq(seq)
+            .event(context.getEvent())
+            .fromState(head.state())
+            .toState(context.getState())
+            .stepId(stepIdOf(context))
+            .createdAt(LocalDateTime.now())
+            .build());
+
+        long snapshotSeq = head.snapshotSeq();
+        if (snapshotSeq < 0 || seq - snapshotSeq >= snapshotEvery || hasVariables(context)) {
+            snapshots.write(context, sagaId, seq);
+            snapshotSeq = seq;
+        }
+        heads.put(sagaId, new Head(seq, context.getState(), snapshotSeq));
+        invalidateOnRollback(sagaId);
+    }
+
+    @Override
+    public StateMachineContext<OrderSagaState, OrderSagaEvent> read(String machineId) throws Exception {
+        long sagaId = Long.parseLong(machineId);
+        JpaPersistingStateMachinePersist.Snapshot snapshot = snapshots.readSnapshot(sagaId);
+        if (snapshot != null && snapshot.journalSeq() == null) {
+            // snapshot mode 에서 쓴 row 는 그 자체가 최신이다. 다음 write 에서 journal 기준 snapshot 으로 다시 쓴다
+            heads.put(sagaId, new Head(lastSeq(sagaId), snapshot.context().getState(), -1));
+            return snapshot.context();
+        }
+
+        long snapshotSeq = snapshot == null ? 0 : snapshot.journalSeq();
+        List<SagaJournalEntity> tail = journalRepository.findTail(sagaId, snapshotSeq);
+        if (snapshot == null && tail.isEmpty()) {
+            return null;
+        }
+
+        CustomStateMachineContext context = snapshot == null
+            ? new CustomStateMachineContext(null, null, null, new CustomExtendedState(), null, machineId)
+            : (CustomStateMachineContext) snapshot.context();
+        long seq = snapshotSeq;
+        if (!tail.isEmpty()) {
+            SagaJournalEntity last = tail.get(tail.size() - 1);
+            context.setState(last.getToState());
+            context.setEvent(last.getEvent());
+            context.setEventHeaders(last.getStepId() == null ? null : Map.of(STEP_ID_HEADER, last.getStepId().toString()));
+            seq = last.getSeq();
+            log.debug("Replayed {} journal entries after seq {} for sagaId: {}", tail.size(), snapshotSeq, sagaId);
+        }
+        heads.put(sagaId, new Head(seq, context.getState(), snapshotSeq));
+        return context;
+    }
+
+    private Head loadHead(long sagaId) {
+        List<SagaJournalEntity> latest = journalRepository.findLatest(sagaId, Limit.of(1));
+        JpaPersistingStateMachinePersist.Snapshot snapshot = snapshots.readSnapshot(sagaId);
+        if (latest.isEmpty()) {
+            // 첫 transition 이거나 snapshot mode 에서 넘어온 saga
+            return new Head(0, snapshot == null ? null : snapshot.context().getState(), snapshot == null ? 0 : -1);
+        }
+        SagaJournalEntity last = latest.get(0);
+        long snapshotSeq = snapshot == null ? 0 : snapshot.journalSeq() == null ? -1 : snapshot.journalSeq();
+        return new Head(last.getSeq(), last.getToState(), snapshotSeq);
+    }
+
+    private long lastSeq(long sagaId) {
+        List<SagaJournalEntity> latest = journalRepository.findLatest(sagaId, Limit.of(1));
+        return latest.isEmpty() ? 0 : latest.get(0).getSeq();
+    }
+
+    private static Long stepIdOf(StateMachineContext<OrderSagaState, OrderSagaEvent> context) {
+        Map<String, Object> headers = context.getEventHeaders();
+        Object stepId = headers == null ? null : headers.get(STEP_ID_HEADER);
+        return stepId == null ? null : Long.valueOf(stepId.toString());
+    }
+
+    private static boolean hasVariables(StateMachineContext<OrderSagaState, OrderSagaEvent> context) {
+        return context.getExtendedState() != null && !context.getExtendedState().getVariables().isEmpty();
+    }
+
+    private void invalidateOnRollback(long sagaId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    heads.invalidate(sagaId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Last journal entry of a saga and the entry its snapshot was taken at ({@code -1}: the snapshot was
+     * written outside journal mode and must be rewritten on the next transition).
+     */
+    private record Head(long seq, OrderSagaState state, long snapshotSeq) {
+    }
+}
@@ -1,6 +1,5 @@
 package saga.order.config.statemachine;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.statemachine.StateMachineContext;
@@ -12,36 +11,76 @@ import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Rewrites the whole context of a saga in {@code saga_state_machine} on every transition. In journal mode
+ * ({@link JournalingStateMachinePersist}) the same row only holds the periodic snapshot.
+ */
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class JpaPersistingStateMachinePersist implements StateMachinePersist<OrderSagaState, OrderSagaEvent, String> {
     private final StateMachineContextJpaRepository repository;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StateMachineContextCodec codec;
+    // 읽기는 설정된 codec 과 관계없이 row 에 저장된 형식으로 한다. codec=json 으로 되돌려도 binary row 가 읽혀야 한다
+    private final StateMachineContextCodec binaryCodec = new BinaryStateMachineContextCodec();
+    private final StateMachineContextCodec legacyJsonCodec = new JsonStateMachineContextCodec();
 
     @Override
     public void write(StateMachineContext<OrderSagaState, OrderSagaEvent> context, String sagaId) throws Exception {
-        String json = objectMapper.writeValueAsString(context);
+        write(context, Long.parseLong(sagaId), null);
+    }
+
+    /**
+     * Writes a snapshot of the context.
+     *
+     * @param context the context
+     * @param sagaId the saga id
+     * @param journalSeq the last journal entry the context includes, or null outside journal mode
+     */
+    public void write(StateMachineContext<OrderSagaState, OrderSagaEvent> context, long sagaId, Long journalSeq) throws Exception {
+        byte[] encoded = codec.encode(context);
 
         StateMachineContextEntity entity = new StateMachineContextEntity();
         entity.setId(sagaId);
-        entity.setContextJson(json);
+        entity.setJournalSeq(journalSeq);
+        if (BinaryStateMachineContextCodec.isBinary(encoded)) {
+            entity.setContextBinary(encoded);
+        } else {
+            entity.setContextJson(new String(encoded, StandardCharsets.UTF_8));
+        }
 
         repository.save(entity);
     }
 
     @Override
     public StateMachineContext<OrderSagaState, OrderSagaEvent> read(String sagaId) throws Exception {
+        Snapshot snapshot = readSnapshot(Long.parseLong(sagaId));
+        return snapshot == null ? null : snapshot.context();
+    }
+
+    /**
+     * @param sagaId the saga id
+     * @return the stored context and the journal entry it was taken at, or null if the saga has none
+     */
+    public Snapshot readSnapshot(long sagaId) {
         return repository.findById(sagaId)
             .map(entity -> {
                 try {
-                    log.info("Read state machine context entity: {}", entity);
-                    return objectMapper.readValue(entity.getContextJson(), CustomStateMachineContext.class);
+                    log.debug("Read state machine context entity: {}", entity.getId());
+                    if (entity.getContextBinary() != null) {
+                        return new Snapshot(binaryCodec.decode(entity.getContextBinary()), entity.getJournalSeq());
+                    }
+                    // binary codec 도입 이전이거나 codec=json 으로 저장된 JSON row
+                    return new Snapshot(legacyJsonCodec.decode(entity.getContextJson().getBytes(StandardCharsets.UTF_8)), entity.getJournalSeq());
                 } catch (IOException e) {
                     throw new IllegalStateException("Failed to deserialize StateMachineContext for sagaId: " + sagaId, e);
                 }
             })
             .orElse(null);
     }
-}
\ No newline at end of file
+
+    public record Snapshot(StateMachineContext<OrderSagaState, OrderSagaEvent> context, Long journalSeq) {
+    }
+}
@@ -0,0 +1,25 @@
+package saga.order.config.statemachine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.statemachine.StateMachineContext;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.io.IOException;
+
+/**
+ * Jackson based codec. This is the format of the legacy {@code context_json} column.
+ */
+public class JsonStateMachineContextCodec implements StateMachineContextCodec {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public byte[] encode(StateMachineContext<OrderSagaState, OrderSagaEvent> context) throws IOException {
+        return objectMapper.writeValueAsBytes(context);
+    }
+
+    @Override
+    public StateMachineContext<OrderSagaState, OrderSagaEvent> decode(byte[] bytes) throws IOException {
+        return objectMapper.readValue(bytes, CustomStateMachineContext.class);
+    }
+}
@@ -0,0 +1,23 @@
+package saga.order.config.statemachine;
+
+import org.springframework.messaging.Message;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.persist.StateMachinePersister;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+/**
+ * {@link StateMachinePersister} of the order saga that can also record which event moved the machine.
+ */
+public interface SagaStateMachinePersister extends StateMachinePersister<OrderSagaState, OrderSagaEvent, String> {
+
+    /**
+     * Persists the machine after {@code message} moved it. The event, and the {@code stepId} header if the
+     * message has one, are written with the context.
+     *
+     * @param stateMachine the state machine
+     * @param sagaId the saga id
+     * @param message the event message that was accepted
+     */
+    void persist(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine, String sagaId, Message<OrderSagaEvent> message) throws Exception;
+}
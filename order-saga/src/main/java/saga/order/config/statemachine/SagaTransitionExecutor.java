@@ -0,0 +1,88 @@
+package saga.order.config.statemachine;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineEventResult;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+import saga.order.tracing.SagaTracing;
+
+import java.util.List;
+
+/**
+ * Sends an event to a saga's state machine and persists the resulting context.
+ *
+ * The returned {@link Mono} completes only after the context was written, so whoever subscribes to it
+ * (and acknowledges the Kafka record afterwards) never runs ahead of the persisted state. An event
+ * the machine does not accept in its current state completes the {@link Mono} with an error instead
+ * of being persisted as if it had moved the saga.
+ *
+ * Each event runs in a span, so the restore, the actions and the persist it causes show up as its children.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SagaTransitionExecutor {
+    private final StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory;
+    private final SagaStateMachinePersister stateMachinePersister;
+    private final StateMachineCache stateMachineCache;
+    private final SagaTracing sagaTracing;
+
+    /**
+     * Fires the event on the (cached or restored) state machine of an existing saga.
+     *
+     * @param sagaId the saga id
+     * @param currentState the status of the saga in {@code saga_instance}; a cached machine in another state is restored
+     * @param message the event message
+     * @return the state machine after the transition was persisted
+     */
+    public Mono<StateMachine<OrderSagaState, OrderSagaEvent>> fire(long sagaId, OrderSagaState currentState, Message<OrderSagaEvent> message) {
+        return sagaTracing.deferInSpan(spanName(message), () -> transit(sagaId, stateMachineCache.acquire(sagaId, currentState), message));
+    }
+
+    /**
+     * Starts a state machine for a new saga, fires the first event and caches the machine.
+     *
+     * @param sagaId the saga id
+     * @param message the first event message
+     * @return the state machine after the transition was persisted
+     */
+    public Mono<StateMachine<OrderSagaState, OrderSagaEvent>> start(long sagaId, Message<OrderSagaEvent> message) {
+        return sagaTracing.deferInSpan(spanName(message), () -> {
+            StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(String.valueOf(sagaId));
+            return stateMachine.startReactively()
+                .then(transit(sagaId, stateMachine, message))
+                .doOnNext(started -> stateMachineCache.put(sagaId, started));
+        });
+    }
+
+    private Mono<StateMachine<OrderSagaState, OrderSagaEvent>> transit(long sagaId,
+                                                                      StateMachine<OrderSagaState, OrderSagaEvent> stateMachine,
+                                                                      Message<OrderSagaEvent> message) {
+        return stateMachine.sendEvent(Mono.just(message))
+            .collectList()
+            .flatMap(results -> {
+                if (!isAccepted(results)) {
+                    return Mono.error(new IllegalStateException("Event " + message.getPayload() + " was not accepted in state "
+                        + stateMachine.getState().getId() + " for sagaId: " + sagaId));
+                }
+                return Mono.fromCallable(() -> {
+                    stateMachinePersister.persist(stateMachine, String.valueOf(sagaId), message);
+                    return stateMachine;
+                });
+            });
+    }
+
+    private static String spanName(Message<OrderSagaEvent> message) {
+        return "saga transition " + message.getPayload();
+    }
+
+    private boolean isAccepted(List<StateMachineEventResult<OrderSagaState, OrderSagaEvent>> results) {
+        return results.stream().anyMatch(result -> result.getResultType() == StateMachineEventResult.ResultType.ACCEPTED);
+    }
+}
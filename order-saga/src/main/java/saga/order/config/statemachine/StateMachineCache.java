@@ -0,0 +1,106 @@
+package saga.order.config.statemachine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.persist.StateMachinePersister;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.time.Duration;
+
+/**
+ * Bounded cache of started state machines keyed by sagaId. The machines themselves carry the sagaId as their
+ * (string) machine id, which is also what the persister is given.
+ *
+ * The persisted context is read on a miss, and when the cached machine is not in the state the caller read
+ * from {@code saga_instance.status}. The replies of one saga arrive on topics whose partitions can belong to
+ * different nodes, and timeouts and recovery run on every node, so another node may have moved the saga since
+ * this one cached its machine; firing the event on the stale machine would be rejected and cost a retry.
+ * A machine handed out inside a transaction is evicted again if that transaction does not commit.
+ */
+@Component
+@Slf4j
+public class StateMachineCache {
+    private final StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory;
+    private final StateMachinePersister<OrderSagaState, OrderSagaEvent, String> stateMachinePersister;
+    private final Cache<Long, StateMachine<OrderSagaState, OrderSagaEvent>> cache;
+
+    public StateMachineCache(StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory,
+                             StateMachinePersister<OrderSagaState, OrderSagaEvent, String> stateMachinePersister,
+                             MeterRegistry meterRegistry,
+                             @Value("${statemachine.cache.maximum-size:10000}") long maximumSize,
+                             @Value("${statemachine.cache.expire-after-access:10m}") Duration expireAfterAccess) {
+        this.stateMachineFactory = stateMachineFactory;
+        this.stateMachinePersister = stateMachinePersister;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(expireAfterAccess)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "saga-state-machine");
+    }
+
+    /**
+     * @param sagaId         the saga id
+     * @param persistedState the status of the saga in {@code saga_instance}, read in the caller's transaction
+     * @return a started machine in {@code persistedState}
+     */
+    public StateMachine<OrderSagaState, OrderSagaEvent> acquire(long sagaId, OrderSagaState persistedState) {
+        StateMachine<OrderSagaState, OrderSagaEvent> cached = cache.getIfPresent(sagaId);
+        if (cached != null && cached.getState().getId() != persistedState) {
+            log.debug("Cached state machine of sagaId: {} is in {} but the saga is in {}, restoring",
+                sagaId, cached.getState().getId(), persistedState);
+            cache.invalidate(sagaId);
+        }
+        StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = cache.get(sagaId, this::restore);
+        invalidateOnRollback(sagaId);
+        return stateMachine;
+    }
+
+    public void put(long sagaId, StateMachine<OrderSagaState, OrderSagaEvent> stateMachine) {
+        cache.put(sagaId, stateMachine);
+        invalidateOnRollback(sagaId);
+    }
+
+    public void invalidate(long sagaId) {
+        cache.invalidate(sagaId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private StateMachine<OrderSagaState, OrderSagaEvent> restore(long sagaId) {
+        StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(String.valueOf(sagaId));
+        try {
+            stateMachinePersister.restore(stateMachine, String.valueOf(sagaId));
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to restore state machine for sagaId: " + sagaId, e);
+        }
+        return stateMachine;
+    }
+
+    private void invalidateOnRollback(long sagaId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    log.debug("Evicting state machine {} after rollback", sagaId);
+                    invalidate(sagaId);
+                }
+            }
+        });
+    }
+}
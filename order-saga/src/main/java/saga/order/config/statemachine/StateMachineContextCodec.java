@@ -0,0 +1,16 @@
+package saga.order.config.statemachine;
+
+import org.springframework.statemachine.StateMachineContext;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.io.IOException;
+
+/**
+ * Converts a persisted {@link StateMachineContext} to and from its stored byte representation.
+ */
+public interface StateMachineContextCodec {
+    byte[] encode(StateMachineContext<OrderSagaState, OrderSagaEvent> context) throws IOException;
+
+    StateMachineContext<OrderSagaState, OrderSagaEvent> decode(byte[] bytes) throws IOException;
+}
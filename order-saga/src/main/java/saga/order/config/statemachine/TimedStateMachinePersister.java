@@ -0,0 +1,73 @@
+package saga.order.config.statemachine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.messaging.Message;
+import org.springframework.statemachine.StateMachine;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+import saga.order.tracing.SagaTracing;
+
+/**
+ * Times the persist and restore calls of another persister, and traces each call as a span.
+ *
+ * {@link CustomStateMachinePersister} inherits {@code persist}/{@code restore} as final methods, so the
+ * timers wrap it instead. They cover the whole call: building or resetting the machine, the codec and the
+ * database round trip.
+ */
+public class TimedStateMachinePersister implements SagaStateMachinePersister {
+    private final SagaStateMachinePersister delegate;
+    private final Timer persistTimer;
+    private final Timer restoreTimer;
+    private final SagaTracing sagaTracing;
+
+    public TimedStateMachinePersister(SagaStateMachinePersister delegate, MeterRegistry meterRegistry,
+                                      SagaTracing sagaTracing) {
+        this.delegate = delegate;
+        this.sagaTracing = sagaTracing;
+        this.persistTimer = Timer.builder("saga.statemachine.persist")
+            .description("Time to build, encode and write a state machine context")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.restoreTimer = Timer.builder("saga.statemachine.restore")
+            .description("Time to read, decode and reset a state machine from its context")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    @Override
+    public void persist(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine, String contextObj) throws Exception {
+        Timer.Sample sample = Timer.start();
+        try {
+            sagaTracing.inSpan("saga persist", () -> {
+                delegate.persist(stateMachine, contextObj);
+                return null;
+            });
+        } finally {
+            sample.stop(persistTimer);
+        }
+    }
+
+    @Override
+    public void persist(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine, String sagaId, Message<OrderSagaEvent> message) throws Exception {
+        Timer.Sample sample = Timer.start();
+        try {
+            sagaTracing.inSpan("saga persist", () -> {
+                delegate.persist(stateMachine, sagaId, message);
+                return null;
+            });
+        } finally {
+            sample.stop(persistTimer);
+        }
+    }
+
+    @Override
+    public StateMachine<OrderSagaState, OrderSagaEvent> restore(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine, String contextObj) throws Exception {
+        Timer.Sample sample = Timer.start();
+        try {
+            return sagaTracing.inSpan("saga restore", () -> delegate.restore(stateMachine, contextObj));
+        } finally {
+            sample.stop(restoreTimer);
+        }
+    }
+}
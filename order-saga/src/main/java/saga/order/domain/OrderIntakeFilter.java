@@ -0,0 +1,121 @@
+package saga.order.domain;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the orderIds that already have a saga.
+ *
+ * {@link #mightContain} never answers false for an orderId that was {@link #put}, so a false answer lets
+ * intake skip the lookup and insert right away; only a true answer (a real duplicate, or a false
+ * positive at roughly {@code saga.intake.bloom.false-positive-rate}) costs a query. The unique index on
+ * {@code saga_instance.order_id} stays the authority, the filter only saves round trips.
+ *
+ * The filter is rebuilt from {@code saga_instance} before the bean is handed out, which is before any
+ * listener container starts. Sagas inserted by other instances afterwards are not in the local filter;
+ * for those the insert of the intake is what catches the duplicate.
+ */
+@Component
+@Slf4j
+public class OrderIntakeFilter implements InitializingBean {
+    private static final int REBUILD_PAGE_SIZE = 10_000;
+
+    private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    public OrderIntakeFilter(SagaInstanceJpaRepository sagaInstanceJpaRepository,
+                             MeterRegistry meterRegistry,
+                             @Value("${saga.intake.bloom.expected-orders:1000000}") long expectedOrders,
+                             @Value("${saga.intake.bloom.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.sagaInstanceJpaRepository = sagaInstanceJpaRepository;
+
+        // m = -n ln p / (ln 2)^2, k = m / n ln 2
+        long bits = (long) Math.ceil(-expectedOrders * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.words = new AtomicLongArray((int) Math.max(1, (bits + 63) / 64));
+        this.bitCount = words.length() * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedOrders * Math.log(2)));
+
+        meterRegistry.gauge("saga.intake.bloom.fill-ratio", this, OrderIntakeFilter::fillRatio);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        long started = System.nanoTime();
+        long loaded = 0;
+        String after = "";
+        List<String> orderIds;
+        do {
+            orderIds = sagaInstanceJpaRepository.findOrderIdsAfter(after, REBUILD_PAGE_SIZE);
+            for (String orderId : orderIds) {
+                put(orderId);
+            }
+            loaded += orderIds.size();
+            if (!orderIds.isEmpty()) {
+                after = orderIds.get(orderIds.size() - 1);
+            }
+        } while (orderIds.size() == REBUILD_PAGE_SIZE);
+
+        log.info("Order intake filter rebuilt with {} orders in {} ms ({} bits, {} hashes)",
+            loaded, (System.nanoTime() - started) / 1_000_000, bitCount, hashCount);
+    }
+
+    public boolean mightContain(String orderId) {
+        long h1 = hash(orderId);
+        long h2 = Long.rotateLeft(h1, 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void put(String orderId) {
+        long h1 = hash(orderId);
+        long h2 = Long.rotateLeft(h1, 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            if ((words.get(word) & mask) == 0) {
+                words.getAndAccumulate(word, mask, (current, set) -> current | set);
+            }
+        }
+    }
+
+    private long index(long combined) {
+        // 음수가 나오지 않도록 뒤집는다 (Kirsch-Mitzenmacher double hashing)
+        return (combined < 0 ? ~combined : combined) % bitCount;
+    }
+
+    private double fillRatio() {
+        long set = 0;
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return (double) set / bitCount;
+    }
+
+    private static long hash(String orderId) {
+        // FNV-1a 64 에 splitmix64 finalizer 를 얹어 64 bit 전체를 고르게 섞는다
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : orderId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
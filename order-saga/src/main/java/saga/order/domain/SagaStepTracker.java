@@ -0,0 +1,145 @@
+package saga.order.domain;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import saga.order.domain.entity.SagaStepEntity;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.SagaStepJpaRepository;
+import saga.order.enums.OrderSagaState;
+import saga.order.metrics.ParticipantLatencyRecorder;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tracks the steps of a saga with two counters on {@code saga_instance} instead of re-reading saga_step.
+ *
+ * A phase (the commands sent by one transition action) starts with {@link #beginPhase}, which reserves
+ * the execution orders of its steps and sets the number of outstanding replies. Each reply then moves
+ * its step with a conditional UPDATE and, only if that UPDATE hit a row, decrements the outstanding
+ * count of the saga while it is still in the phase's state. So a duplicate reply, or a late reply of a
+ * phase the saga already left, never counts, and exactly one reply sees the count reach zero.
+ */
+@Component
+@RequiredArgsConstructor
+public class SagaStepTracker {
+    private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final SagaStepJpaRepository sagaStepJpaRepository;
+    private final ParticipantLatencyRecorder participantLatencyRecorder;
+
+    /**
+     * Starts a phase of {@code count} steps.
+     *
+     * @param sagaId the saga id
+     * @param count the number of steps the phase sends
+     * @return the execution order of the first step; the others follow consecutively
+     */
+    public int beginPhase(long sagaId, int count) {
+        // useAffectedRows 에서는 값이 그대로인 UPDATE (0 개 phase 를 연속으로 시작) 도 0 을 돌려준다
+        if (sagaInstanceJpaRepository.beginPhase(sagaId, count) == 0 && !sagaInstanceJpaRepository.existsById(sagaId)) {
+            throw new IllegalStateException("No saga instance found for sagaId: " + sagaId);
+        }
+        // UPDATE 로 잡은 row 는 같은 transaction 에서 다시 읽어도 방금 쓴 값이 보인다
+        return sagaInstanceJpaRepository.findNextExecutionOrder(sagaId) - count;
+    }
+
+    /**
+     * Adds {@code count} steps to a saga after its phase began, e.g. the compensation of a reply that came late.
+     * They count as outstanding replies only if the saga is in {@code phase}; otherwise their replies are
+     * just recorded on the steps.
+     *
+     * @param sagaId the saga id
+     * @param count the number of steps to add
+     * @param phase the saga state whose outstanding replies the steps join
+     * @return the execution order of the first step; the others follow consecutively
+     */
+    public int joinPhase(long sagaId, int count, OrderSagaState phase) {
+        if (sagaInstanceJpaRepository.joinPhase(sagaId, phase.name(), count) == 0) {
+            throw new IllegalStateException("No saga instance found for sagaId: " + sagaId);
+        }
+        return sagaInstanceJpaRepository.findNextExecutionOrder(sagaId) - count;
+    }
+
+    /**
+     * Records the reply of one step of the current phase.
+     *
+     * @param sagaId the saga id
+     * @param stepId the step the reply belongs to
+     * @param from the status the step must still be in
+     * @param to the status the reply moves the step to
+     * @param phase the saga state the phase runs in
+     * @return true if this reply was the last outstanding one of the phase
+     */
+    public boolean complete(long sagaId, long stepId, SagaStepEntity.StepStatus from, SagaStepEntity.StepStatus to, OrderSagaState phase) {
+        return settle(stepId, from, to) && countDown(sagaId, phase);
+    }
+
+    /**
+     * Counts the reply of a step that was already settled with {@link #settle}.
+     *
+     * @param sagaId the saga id
+     * @param phase the saga state the phase runs in
+     * @return true if this reply was the last outstanding one of the phase, false also if the saga left the phase
+     */
+    public boolean countDown(long sagaId, OrderSagaState phase) {
+        if (sagaInstanceJpaRepository.decrementOutstandingSteps(sagaId, phase.name()) == 0) {
+            return false;
+        }
+        return sagaInstanceJpaRepository.findOutstandingSteps(sagaId) == 0;
+    }
+
+    /**
+     * Counts the replies of several steps that were already settled with {@link #settleAll}.
+     *
+     * @param sagaId the saga id
+     * @param phase the saga state the phase runs in
+     * @param count the number of settled steps
+     * @return true if these replies were the last outstanding ones of the phase, false also if the saga left the phase
+     */
+    public boolean countDown(long sagaId, OrderSagaState phase, int count) {
+        if (count == 0) {
+            return false;
+        }
+        if (sagaInstanceJpaRepository.decrementOutstandingSteps(sagaId, phase.name(), count) == 0) {
+            return false;
+        }
+        return sagaInstanceJpaRepository.findOutstandingSteps(sagaId) == 0;
+    }
+
+    /**
+     * Settles one step on its participant's reply: moves it out of {@code from}, stamps {@code ended_at}
+     * and records the participant's round trip.
+     *
+     * @param stepId the step the reply belongs to
+     * @param from the status the step must still be in
+     * @param to the status the reply moves the step to
+     * @return false if the step was already settled, e.g. by a duplicate reply or a timeout
+     */
+    public boolean settle(long stepId, SagaStepEntity.StepStatus from, SagaStepEntity.StepStatus to) {
+        return settleAll(List.of(stepId), from, to) == 1;
+    }
+
+    /**
+     * Settles several steps at once, e.g. the lines of an aggregate reply.
+     *
+     * @param stepIds the steps the replies belong to
+     * @param from the status the steps must still be in
+     * @param to the status the replies move the steps to
+     * @return the number of steps that were still in {@code from}
+     */
+    public int settleAll(Collection<Long> stepIds, SagaStepEntity.StepStatus from, SagaStepEntity.StepStatus to) {
+        if (stepIds.isEmpty()) {
+            return 0;
+        }
+        // 이번 UPDATE 가 옮긴 step 만 같은 ended_at 을 가지므로, 그 값으로 다시 읽어 round trip 을 남긴다
+        LocalDateTime endedAt = SagaStepJpaRepository.endedAtNow();
+        int transited = stepIds.size() == 1
+            ? sagaStepJpaRepository.transitStatus(stepIds.iterator().next(), from, to, endedAt)
+            : sagaStepJpaRepository.transitStatus(stepIds, from, to, endedAt);
+        if (transited > 0) {
+            participantLatencyRecorder.record(sagaStepJpaRepository.findRoundTrips(stepIds, endedAt));
+        }
+        return transited;
+    }
+}
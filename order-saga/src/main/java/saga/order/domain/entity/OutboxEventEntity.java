@@ -3,20 +3,35 @@ package saga.order.domain.entity;
 import jakarta.persistence.*;
 import lombok.*;
 import org.hibernate.annotations.CreationTimestamp;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "outbox_event", schema = "saga_db")
+@Table(
+    name = "outbox_event",
+    schema = "saga_db",
+    indexes = {
+        @Index(name = "idx_outbox_event_status_id", columnList = "status, id"),
+        @Index(name = "idx_outbox_event_message_key", columnList = "message_key")
+    }
+)
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-public class OutboxEventEntity {
+public class OutboxEventEntity implements Persistable<Long> {
 
     @Id
-    private String id;
+    private Long id;
+
+    @Column(nullable = false, length = 100)
+    private String topic;
+
+    // 같은 saga 의 메시지가 같은 partition 으로 가도록 sagaId 를 key 로 쓴다
+    @Column(name = "message_key")
+    private Long messageKey;
 
     @Column(name = "aggregate_type", nullable = false, length = 100)
     private String aggregateType; // ex: Order, Payment
@@ -31,9 +46,17 @@ public class OutboxEventEntity {
     @Column(name = "message_type", columnDefinition = "varchar(20)", nullable = false, length = 20)
     private MessageType messageType;
 
-    @Column(columnDefinition = "json", nullable = false)
+    // payload 와 payload_zstd 중 하나만 채워진다 (PayloadCodec). relay 가 보낼 때만 풀어 쓴다
+    @Column(columnDefinition = "json")
     private String payload;
 
+    @Column(name = "payload_zstd", columnDefinition = "blob")
+    private byte[] payloadZstd;
+
+    // 이 row 를 쓴 span 의 traceparent 등. relay 가 kafka header 로 옮겨 trace 를 이어 준다
+    @Column(name = "trace_headers", length = 512)
+    private String traceHeaders;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false, length = 20)
     private EventStatus status;
@@ -45,8 +68,29 @@ public class OutboxEventEntity {
     @Column(name = "published_at")
     private LocalDateTime publishedAt;
 
+    // IN_FLIGHT 인 동안 relay 가 이 row 를 잡고 있는 기한
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+
+    // id 를 Snowflake 로 미리 채우므로 save 가 merge(SELECT 후 INSERT)로 가지 않도록 새 entity 인지 직접 알려준다
+    @Transient
+    @Builder.Default
+    private boolean newEntity = true;
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.newEntity = false;
+    }
+
     public enum EventStatus {
         PENDING,
+        IN_FLIGHT,      // relay 가 claim 해서 broker 응답을 기다리는 중
         PUBLISHED,
         FAILED
     }
@@ -0,0 +1,29 @@
+package saga.order.domain.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "payload_dictionary", schema = "saga_db")
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PayloadDictionaryEntity {
+    // zstd 가 dictionary 와 그것으로 압축한 frame 의 header 에 쓰는 dictionary id.
+    // 압축된 row 가 hot/archive 테이블에 남아 있는 동안은 지우면 안 된다
+    @Id
+    private Long id;
+
+    @Column(nullable = false, columnDefinition = "blob")
+    private byte[] dictionary;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
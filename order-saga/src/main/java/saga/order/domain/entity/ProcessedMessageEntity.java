@@ -0,0 +1,29 @@
+package saga.order.domain.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(
+    name = "processed_message",
+    schema = "saga_db",
+    indexes = @Index(name = "idx_processed_message_processed_at", columnList = "processed_at")
+)
+@Getter
+@NoArgsConstructor
+public class ProcessedMessageEntity {
+    // stepId:topic. 토픽이 응답 결과(succ/fail)를 구분한다
+    @Id
+    @Column(name = "message_key", length = 100)
+    private String messageKey;
+
+    @Column(name = "processed_at", nullable = false)
+    private LocalDateTime processedAt;
+}
@@ -11,7 +11,14 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "saga_instance", schema = "saga_db")
+@Table(
+    name = "saga_instance",
+    schema = "saga_db",
+    uniqueConstraints = @UniqueConstraint(name = "uk_saga_instance_order_id", columnNames = "order_id"),
+    indexes = {
+        @Index(name = "idx_saga_instance_status_id", columnList = "status, id")
+    }
+)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -20,18 +27,26 @@ import java.util.List;
 public class SagaInstanceEntity {
 
     @Id
-    private String id;
+    private Long id;
 
     @Column(name = "saga_type", nullable = false)
     private String sagaType;
 
+    // 같은 주문의 saga 는 하나뿐이다. OrderCreatedEvent 가 다시 배달돼도 unique index 가 두 번째 saga 를 막는다
+    @Column(name = "order_id", length = 100)
+    private String orderId;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private OrderSagaState status;
 
+    // saga.payload.compression=zstd 로 쓴 row 는 context 가 null 이고 context_zstd 에 압축돼 있다. PayloadCodec.read 로 읽는다
     @Column(columnDefinition = "json")
     private String context;
 
+    @Column(name = "context_zstd", columnDefinition = "blob")
+    private byte[] contextZstd;
+
     @CreationTimestamp
     private LocalDateTime createdAt;
 
@@ -41,6 +56,14 @@ public class SagaInstanceEntity {
     @OneToMany(mappedBy = "sagaInstance", fetch = FetchType.LAZY)
     private List<SagaStepEntity> sagaSteps = new ArrayList<>();
 
+    // 아래 카운터는 SagaStepTracker 의 native UPDATE 로만 바뀐다.
+    // entity 의 dirty checking 이 오래된 값으로 덮어쓰지 않도록 updatable = false 로 둔다
+    @Column(name = "outstanding_steps", nullable = false, updatable = false)
+    private int outstandingSteps;
+
+    @Column(name = "next_execution_order", nullable = false, updatable = false)
+    private int nextExecutionOrder;
+
     public void updateStatus(final OrderSagaState newStatus) {
         this.status = newStatus;
     }
@@ -0,0 +1,68 @@
+package saga.order.domain.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * One transition of a saga, appended in order. The primary key (saga_id, seq) keeps a saga's transitions
+ * next to each other, so replaying the tail after a snapshot is a single range read.
+ */
+@Entity
+@Table(name = "saga_journal", schema = "saga_db")
+@IdClass(SagaJournalEntity.Key.class)
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SagaJournalEntity implements Persistable<SagaJournalEntity.Key> {
+
+    @Id
+    @Column(name = "saga_id")
+    private long sagaId;
+
+    @Id
+    private long seq;
+
+    @Enumerated(EnumType.STRING)
+    private OrderSagaEvent event;
+
+    // 첫 transition 은 저장된 이전 상태가 없으므로 null
+    @Enumerated(EnumType.STRING)
+    private OrderSagaState fromState;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private OrderSagaState toState;
+
+    // 참여자 응답 하나가 일으킨 transition 일 때만 채운다
+    private Long stepId;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    // 항상 새 row 를 append 하므로 save 가 merge(SELECT 후 INSERT)로 가지 않게 한다
+    @Override
+    public Key getId() {
+        return new Key(sagaId, seq);
+    }
+
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private long sagaId;
+        private long seq;
+    }
+}
@@ -2,20 +2,27 @@ package saga.order.domain.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "saga_step", schema = "saga_db")
+@Table(
+    name = "saga_step",
+    schema = "saga_db",
+    indexes = {
+        @Index(name = "idx_saga_step_status_id", columnList = "status, id")
+    }
+)
 @Getter
 @Setter
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
-public class SagaStepEntity {
+public class SagaStepEntity implements Persistable<Long> {
 
     @Id
-    private String id;
+    private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "saga_id", nullable = false)
@@ -35,12 +42,19 @@ public class SagaStepEntity {
 
     private int executionOrder;
 
+    // json 컬럼과 *_zstd 컬럼 중 하나만 채워진다 (PayloadCodec)
     @Column(columnDefinition = "json")
     private String command;
 
+    @Column(name = "command_zstd", columnDefinition = "blob")
+    private byte[] commandZstd;
+
     @Column(columnDefinition = "json")
     private String eventResponse;
 
+    @Column(name = "event_response_zstd", columnDefinition = "blob")
+    private byte[] eventResponseZstd;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "compensates_step_id")
     private SagaStepEntity compensatesStep;
@@ -48,6 +62,22 @@ public class SagaStepEntity {
     private LocalDateTime startedAt;
     private LocalDateTime endedAt;
 
+    // id 를 Snowflake 로 미리 채우므로 save 가 merge(SELECT 후 INSERT)로 가지 않도록 새 entity 인지 직접 알려준다
+    @Transient
+    @Builder.Default
+    private boolean newEntity = true;
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.newEntity = false;
+    }
+
     public enum StepType {
         FORWARD,        // 정방향 트랜잭션 (ex: 결제 요청, 재고 차감)
         COMPENSATION    // 보상 트랜잭션 (ex: 결제 취소, 재고 복원)
@@ -15,7 +15,12 @@ import lombok.Setter;
 @NoArgsConstructor
 public class StateMachineContextEntity {
     @Id
-    private String id;
-    @Column(nullable = false, columnDefinition = "json")
+    private Long id;
+    // 기존 row 호환용. binary codec 으로 다시 저장되면 null 로 비워진다
+    @Column(columnDefinition = "json")
     private String contextJson;
+    @Column(columnDefinition = "varbinary(1024)")
+    private byte[] contextBinary;
+    // journal mode 에서 이 snapshot 이 반영한 마지막 saga_journal.seq. snapshot mode 로 쓴 row 는 null
+    private Long journalSeq;
 }
@@ -4,24 +4,47 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 import saga.order.domain.entity.OutboxEventEntity;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxEventJpaRepository extends JpaRepository<OutboxEventEntity, Long> {
+    // 여러 노드가 동시에 relay 할 수 있도록 다른 트랜잭션이 잡은 row 는 건너뛴다
+    @Query(value = """
+        SELECT * FROM outbox_event
+        WHERE status = 'PENDING'
+        ORDER BY id
+        LIMIT :limit
+        FOR UPDATE SKIP LOCKED
+    """, nativeQuery = true)
+    List<OutboxEventEntity> claimPendingBatch(@Param("limit") int limit);
 
-public interface OutboxEventJpaRepository extends JpaRepository<OutboxEventEntity, String> {
     @Modifying
-    @Transactional(propagation = Propagation.REQUIRES_NEW) // ← 중요!
     @Query(value = """
         UPDATE outbox_event
         SET status = :status,
             published_at = :publishedAt
-        WHERE id = :id
+        WHERE id IN (:ids)
     """, nativeQuery = true)
-    void updateStatusNative(
-        @Param("id") String id,
+    int updateStatusInBatch(
+        @Param("ids") Collection<Long> ids,
         @Param("status") String status,
         @Param("publishedAt") LocalDateTime publishedAt
     );
+
+    // claim 을 commit 해서 row lock 을 놓은 뒤에도 다른 relay 가 다시 잡지 않게 한다
+    @Modifying
+    @Query(value = "UPDATE outbox_event SET status = 'IN_FLIGHT', lease_until = :leaseUntil WHERE id IN (:ids)", nativeQuery = true)
+    int leaseBatch(@Param("ids") Collection<Long> ids, @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    @Modifying
+    @Query(value = "UPDATE outbox_event SET status = 'PENDING', lease_until = NULL WHERE id IN (:ids) AND status = 'IN_FLIGHT'", nativeQuery = true)
+    int releaseLeases(@Param("ids") Collection<Long> ids);
+
+    // 보내는 도중에 죽은 relay 가 잡고 있던 row
+    @Modifying
+    @Query(value = "UPDATE outbox_event SET status = 'PENDING', lease_until = NULL WHERE status = 'IN_FLIGHT' AND lease_until < :now", nativeQuery = true)
+    int releaseExpiredLeases(@Param("now") LocalDateTime now);
 }
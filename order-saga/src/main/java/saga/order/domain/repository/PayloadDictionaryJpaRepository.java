@@ -0,0 +1,11 @@
+package saga.order.domain.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import saga.order.domain.entity.PayloadDictionaryEntity;
+
+import java.util.Optional;
+
+public interface PayloadDictionaryJpaRepository extends JpaRepository<PayloadDictionaryEntity, Long> {
+
+    Optional<PayloadDictionaryEntity> findFirstByOrderByCreatedAtDesc();
+}
@@ -0,0 +1,18 @@
+package saga.order.domain.repository;
+
+import saga.order.domain.entity.SagaStepEntity;
+
+import java.time.LocalDateTime;
+
+/**
+ * A saga step that still waits for its participant's reply, without loading the step entity.
+ */
+public record PendingSagaStep(
+    long id,
+    long sagaId,
+    String stepName,
+    SagaStepEntity.StepType stepType,
+    SagaStepEntity.StepStatus status,
+    LocalDateTime startedAt
+) {
+}
@@ -0,0 +1,32 @@
+package saga.order.domain.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import saga.order.domain.entity.ProcessedMessageEntity;
+
+import java.time.LocalDateTime;
+
+public interface ProcessedMessageJpaRepository extends JpaRepository<ProcessedMessageEntity, String> {
+    /**
+     * Only a duplicate key is skipped, other errors fail the insert (see {@code SagaInstanceJpaRepository#insertIfAbsent}).
+     *
+     * @return 1 if the message is recorded now, 0 if it was already recorded
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO processed_message (message_key, processed_at)
+        VALUES (:messageKey, CURRENT_TIMESTAMP(6))
+        ON DUPLICATE KEY UPDATE message_key = message_key
+    """, nativeQuery = true)
+    int markProcessed(@Param("messageKey") String messageKey);
+
+    @Modifying
+    @Query(value = """
+        DELETE FROM processed_message
+        WHERE processed_at < :before
+        LIMIT :limit
+    """, nativeQuery = true)
+    int deleteProcessedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
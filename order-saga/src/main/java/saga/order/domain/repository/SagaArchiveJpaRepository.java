@@ -0,0 +1,73 @@
+package saga.order.domain.repository;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import saga.order.domain.entity.SagaInstanceEntity;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Moves terminal sagas from the hot tables into their {@code *_archive} copies (ddl-script.sql).
+ * An archive table has the columns of its hot table in the same order, followed by {@code archived_at},
+ * the column it is range-partitioned by, so rows are copied with {@code SELECT t.*, :archivedAt}.
+ */
+public interface SagaArchiveJpaRepository extends Repository<SagaInstanceEntity, Long> {
+
+    // id 가 생성 시각 순이므로 (status, id) index 의 range scan 으로 오래된 saga 만 읽는다.
+    // outbox 에 아직 못 보낸 command 가 남은 saga 는 relay 가 끝낼 때까지 두고 본다.
+    // 여러 instance 가 같이 돌아도 같은 saga 를 두 번 옮기지 않도록 잠긴 row 는 건너뛴다
+    @Query(value = """
+        SELECT si.id FROM saga_instance si
+        WHERE si.status IN (:statuses) AND si.id < :beforeId
+          AND NOT EXISTS (SELECT 1 FROM outbox_event o WHERE o.message_key = si.id AND o.status IN ('PENDING', 'IN_FLIGHT'))
+        LIMIT :limit
+        FOR UPDATE SKIP LOCKED
+    """, nativeQuery = true)
+    List<Long> findArchivableIds(@Param("statuses") Collection<String> statuses, @Param("beforeId") long beforeId,
+                                   @Param("limit") int limit);
+
+    @Modifying
+    @Query(value = "INSERT INTO saga_instance_archive SELECT si.*, :archivedAt FROM saga_instance si WHERE si.id IN (:sagaIds)", nativeQuery = true)
+    int copyInstances(@Param("sagaIds") Collection<Long> sagaIds, @Param("archivedAt") LocalDateTime archivedAt);
+
+    @Modifying
+    @Query(value = "INSERT INTO saga_step_archive SELECT ss.*, :archivedAt FROM saga_step ss WHERE ss.saga_id IN (:sagaIds)", nativeQuery = true)
+    int copySteps(@Param("sagaIds") Collection<Long> sagaIds, @Param("archivedAt") LocalDateTime archivedAt);
+
+    @Modifying
+    @Query(value = "INSERT INTO outbox_event_archive SELECT o.*, :archivedAt FROM outbox_event o WHERE o.message_key IN (:sagaIds)", nativeQuery = true)
+    int copyOutboxEvents(@Param("sagaIds") Collection<Long> sagaIds, @Param("archivedAt") LocalDateTime archivedAt);
+
+    @Modifying
+    @Query(value = "INSERT INTO saga_state_machine_archive SELECT sm.*, :archivedAt FROM saga_state_machine sm WHERE sm.id IN (:sagaIds)", nativeQuery = true)
+    int copyStateMachines(@Param("sagaIds") Collection<Long> sagaIds, @Param("archivedAt") LocalDateTime archivedAt);
+
+    @Modifying
+    @Query(value = "INSERT INTO saga_journal_archive SELECT j.*, :archivedAt FROM saga_journal j WHERE j.saga_id IN (:sagaIds)", nativeQuery = true)
+    int copyJournal(@Param("sagaIds") Collection<Long> sagaIds, @Param("archivedAt") LocalDateTime archivedAt);
+
+    // 보상 step 이 compensates_step_id 로 앞선 step 을 가리키므로, 나중에 만든(id 가 큰) step 부터 지운다
+    @Modifying
+    @Query(value = "DELETE FROM saga_step WHERE saga_id IN (:sagaIds) ORDER BY id DESC", nativeQuery = true)
+    int deleteSteps(@Param("sagaIds") Collection<Long> sagaIds);
+
+    @Modifying
+    @Query(value = "DELETE FROM outbox_event WHERE message_key IN (:sagaIds)", nativeQuery = true)
+    int deleteOutboxEvents(@Param("sagaIds") Collection<Long> sagaIds);
+
+    @Modifying
+    @Query(value = "DELETE FROM saga_state_machine WHERE id IN (:sagaIds)", nativeQuery = true)
+    int deleteStateMachines(@Param("sagaIds") Collection<Long> sagaIds);
+
+    @Modifying
+    @Query(value = "DELETE FROM saga_journal WHERE saga_id IN (:sagaIds)", nativeQuery = true)
+    int deleteJournal(@Param("sagaIds") Collection<Long> sagaIds);
+
+    @Modifying
+    @Query(value = "DELETE FROM saga_instance WHERE id IN (:sagaIds)", nativeQuery = true)
+    int deleteInstances(@Param("sagaIds") Collection<Long> sagaIds);
+}
@@ -1,18 +1,104 @@
 package saga.order.domain.repository;
 
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import saga.order.domain.entity.SagaInstanceEntity;
+import saga.order.enums.OrderSagaState;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-public interface SagaInstanceJpaRepository extends JpaRepository<SagaInstanceEntity, String> {
+public interface SagaInstanceJpaRepository extends JpaRepository<SagaInstanceEntity, Long> {
     @Query("""
     SELECT DISTINCT si FROM SagaInstanceEntity si
     LEFT JOIN FETCH si.sagaSteps ss
     WHERE si.id = :sagaId
     ORDER BY ss.executionOrder
 """)
-    Optional<SagaInstanceEntity> findByIdWithStepsOrdered(@Param("sagaId") String sagaId);
+    Optional<SagaInstanceEntity> findByIdWithStepsOrdered(@Param("sagaId") long sagaId);
+
+    Optional<SagaInstanceEntity> findByOrderId(String orderId);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT si FROM SagaInstanceEntity si WHERE si.id = :sagaId")
+    Optional<SagaInstanceEntity> findByIdForUpdate(@Param("sagaId") long sagaId);
+
+    /**
+     * Creates the saga of an order unless the order already has one. One of {@code context} and
+     * {@code contextZstd} is set, see {@link saga.order.payload.PayloadCodec}.
+     *
+     * Unlike {@code INSERT IGNORE}, only a key conflict is skipped; any other error (truncation, a NULL in a
+     * NOT NULL column) still fails the insert. The 0 relies on {@code useAffectedRows=true} in the JDBC url.
+     *
+     * @return 1 if the saga was created, 0 if {@code uk_saga_instance_order_id} already holds the orderId
+     */
+    @Modifying
+    @Query(value = """
+    INSERT INTO saga_instance (id, saga_type, order_id, status, context, context_zstd, created_at, updated_at, outstanding_steps, next_execution_order)
+    VALUES (:sagaId, :sagaType, :orderId, :status, :context, :contextZstd, CURRENT_TIMESTAMP(6), CURRENT_TIMESTAMP(6), 0, 0)
+    ON DUPLICATE KEY UPDATE id = id
+""", nativeQuery = true)
+    int insertIfAbsent(@Param("sagaId") long sagaId, @Param("sagaType") String sagaType, @Param("orderId") String orderId,
+                       @Param("status") String status, @Param("context") String context, @Param("contextZstd") byte[] contextZstd);
+
+    @Query("SELECT si.id FROM SagaInstanceEntity si WHERE si.status = :status AND si.id > :after AND si.id < :before ORDER BY si.id")
+    List<Long> findIdsByStatusBetween(@Param("status") OrderSagaState status, @Param("after") long after,
+                                      @Param("before") long before, Limit limit);
+
+    @Query("""
+    SELECT new saga.order.domain.repository.SagaStatusCount(si.status, COUNT(si))
+    FROM SagaInstanceEntity si
+    WHERE si.status IN :statuses
+    GROUP BY si.status
+""")
+    List<SagaStatusCount> countByStatusIn(@Param("statuses") Collection<OrderSagaState> statuses);
+
+    @Query(value = "SELECT order_id FROM saga_instance WHERE order_id > :after ORDER BY order_id LIMIT :limit", nativeQuery = true)
+    List<String> findOrderIdsAfter(@Param("after") String after, @Param("limit") int limit);
+
+    @Modifying
+    @Query(value = """
+    UPDATE saga_instance
+    SET outstanding_steps = :count, next_execution_order = next_execution_order + :count
+    WHERE id = :sagaId
+""", nativeQuery = true)
+    int beginPhase(@Param("sagaId") long sagaId, @Param("count") int count);
+
+    // 진행 중인 phase 가 :phase 일 때만 응답을 기다릴 step 으로 센다
+    @Modifying
+    @Query(value = """
+    UPDATE saga_instance
+    SET outstanding_steps = outstanding_steps + CASE WHEN status = :phase THEN :count ELSE 0 END,
+        next_execution_order = next_execution_order + :count
+    WHERE id = :sagaId
+""", nativeQuery = true)
+    int joinPhase(@Param("sagaId") long sagaId, @Param("phase") String phase, @Param("count") int count);
+
+    @Modifying
+    @Query(value = """
+    UPDATE saga_instance
+    SET outstanding_steps = outstanding_steps - 1
+    WHERE id = :sagaId AND status = :phase AND outstanding_steps > 0
+""", nativeQuery = true)
+    int decrementOutstandingSteps(@Param("sagaId") long sagaId, @Param("phase") String phase);
+
+    @Modifying
+    @Query(value = """
+    UPDATE saga_instance
+    SET outstanding_steps = outstanding_steps - :count
+    WHERE id = :sagaId AND status = :phase AND outstanding_steps >= :count
+""", nativeQuery = true)
+    int decrementOutstandingSteps(@Param("sagaId") long sagaId, @Param("phase") String phase, @Param("count") int count);
+
+    @Query(value = "SELECT outstanding_steps FROM saga_instance WHERE id = :sagaId", nativeQuery = true)
+    int findOutstandingSteps(@Param("sagaId") long sagaId);
+
+    @Query(value = "SELECT next_execution_order FROM saga_instance WHERE id = :sagaId", nativeQuery = true)
+    int findNextExecutionOrder(@Param("sagaId") long sagaId);
 }
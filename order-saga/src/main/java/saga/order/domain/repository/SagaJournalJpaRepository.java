@@ -0,0 +1,18 @@
+package saga.order.domain.repository;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import saga.order.domain.entity.SagaJournalEntity;
+
+import java.util.List;
+
+public interface SagaJournalJpaRepository extends JpaRepository<SagaJournalEntity, SagaJournalEntity.Key> {
+
+    @Query("SELECT j FROM SagaJournalEntity j WHERE j.sagaId = :sagaId AND j.seq > :afterSeq ORDER BY j.seq")
+    List<SagaJournalEntity> findTail(@Param("sagaId") long sagaId, @Param("afterSeq") long afterSeq);
+
+    @Query("SELECT j FROM SagaJournalEntity j WHERE j.sagaId = :sagaId ORDER BY j.seq DESC")
+    List<SagaJournalEntity> findLatest(@Param("sagaId") long sagaId, Limit limit);
+}
@@ -0,0 +1,9 @@
+package saga.order.domain.repository;
+
+import saga.order.enums.OrderSagaState;
+
+/**
+ * The number of sagas in one state.
+ */
+public record SagaStatusCount(OrderSagaState status, long count) {
+}
@@ -1,21 +1,88 @@
 package saga.order.domain.repository;
 
 import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import saga.order.domain.entity.SagaStepEntity;
 
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
 import java.util.List;
 
-public interface SagaStepJpaRepository extends JpaRepository<SagaStepEntity, String> {
-    List<SagaStepEntity> findBySagaInstanceIdAndStepType(String sagaId, SagaStepEntity.StepType stepType);
+public interface SagaStepJpaRepository extends JpaRepository<SagaStepEntity, Long> {
+    List<SagaStepEntity> findBySagaInstanceIdAndStepType(long sagaId, SagaStepEntity.StepType stepType);
 
-    List<SagaStepEntity> findBySagaInstanceIdAndStepName(String sagaId, String stepName);
+    List<SagaStepEntity> findBySagaInstanceIdAndStepName(long sagaId, String stepName);
+
+    List<SagaStepEntity> findBySagaInstanceIdAndStepNameAndStatus(long sagaId, String stepName, SagaStepEntity.StepStatus status);
 
     @Modifying
     @Transactional
     @Query("UPDATE SagaStepEntity s SET s.status = :status WHERE s.id = :stepId")
-    int updateStatusByStepId(@Param("stepId") String stepId, @Param("status") SagaStepEntity.StepStatus status);
+    int updateStatusByStepId(@Param("stepId") long stepId, @Param("status") SagaStepEntity.StepStatus status);
+
+    /**
+     * Settles a step: moves it out of {@code from} and stamps {@code ended_at}.
+     *
+     * @return 1 if the step was still in {@code from}
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE SagaStepEntity s SET s.status = :to, s.endedAt = :endedAt WHERE s.id = :stepId AND s.status = :from")
+    int transitStatus(@Param("stepId") long stepId, @Param("from") SagaStepEntity.StepStatus from, @Param("to") SagaStepEntity.StepStatus to,
+                      @Param("endedAt") LocalDateTime endedAt);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE SagaStepEntity s SET s.status = :to, s.endedAt = :endedAt WHERE s.id IN :stepIds AND s.status = :from")
+    int transitStatus(@Param("stepIds") Collection<Long> stepIds, @Param("from") SagaStepEntity.StepStatus from, @Param("to") SagaStepEntity.StepStatus to,
+                      @Param("endedAt") LocalDateTime endedAt);
+
+    default int transitStatus(long stepId, SagaStepEntity.StepStatus from, SagaStepEntity.StepStatus to) {
+        return transitStatus(stepId, from, to, endedAtNow());
+    }
+
+    default int transitStatus(Collection<Long> stepIds, SagaStepEntity.StepStatus from, SagaStepEntity.StepStatus to) {
+        return transitStatus(stepIds, from, to, endedAtNow());
+    }
+
+    // datetime(6) 에 저장되는 값 그대로 비교할 수 있도록 microsecond 로 자른다
+    static LocalDateTime endedAtNow() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    /**
+     * Returns the round trips of the steps that one {@code transitStatus} call settled: those are the steps
+     * whose {@code ended_at} is the timestamp it was given.
+     */
+    @Query("""
+    SELECT new saga.order.domain.repository.StepRoundTrip(s.aggregateType, s.stepName, s.startedAt, s.endedAt)
+    FROM SagaStepEntity s
+    WHERE s.id IN :stepIds AND s.endedAt = :endedAt
+""")
+    List<StepRoundTrip> findRoundTrips(@Param("stepIds") Collection<Long> stepIds, @Param("endedAt") LocalDateTime endedAt);
+
+    @Query("""
+    SELECT new saga.order.domain.repository.PendingSagaStep(s.id, s.sagaInstance.id, s.stepName, s.stepType, s.status, s.startedAt)
+    FROM SagaStepEntity s
+    WHERE s.status IN :statuses AND s.id > :after
+    ORDER BY s.id
+""")
+    List<PendingSagaStep> findPendingAfter(@Param("statuses") Collection<SagaStepEntity.StepStatus> statuses, @Param("after") long after, Limit limit);
+
+    @Query("""
+    SELECT new saga.order.domain.repository.PendingSagaStep(s.id, s.sagaInstance.id, s.stepName, s.stepType, s.status, s.startedAt)
+    FROM SagaStepEntity s
+    WHERE s.id IN :stepIds AND s.status IN :statuses
+""")
+    List<PendingSagaStep> findPendingByIds(@Param("stepIds") Collection<Long> stepIds, @Param("statuses") Collection<SagaStepEntity.StepStatus> statuses);
+
+    @Query("SELECT s.status FROM SagaStepEntity s WHERE s.sagaInstance.id = :sagaId AND s.stepName = :stepName")
+    List<SagaStepEntity.StepStatus> findStatuses(@Param("sagaId") long sagaId, @Param("stepName") String stepName);
+
+    boolean existsBySagaInstanceIdAndStepNameAndStatus(long sagaId, String stepName, SagaStepEntity.StepStatus status);
 }
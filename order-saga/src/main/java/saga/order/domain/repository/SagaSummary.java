@@ -0,0 +1,17 @@
+package saga.order.domain.repository;
+
+import saga.order.enums.OrderSagaState;
+
+import java.time.LocalDateTime;
+
+/**
+ * A saga as found by {@code SagaLookup}, in the hot tables or in the archive.
+ *
+ * @param archivedAt when the saga was moved to the archive, null while it is in {@code saga_instance}
+ */
+public record SagaSummary(long sagaId, String orderId, OrderSagaState status, LocalDateTime createdAt, LocalDateTime archivedAt) {
+
+    public boolean archived() {
+        return archivedAt != null;
+    }
+}
@@ -0,0 +1,14 @@
+package saga.order.domain.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * When a step's command was sent and when its participant's reply settled it.
+ */
+public record StepRoundTrip(
+    String aggregateType,
+    String stepName,
+    LocalDateTime startedAt,
+    LocalDateTime endedAt
+) {
+}
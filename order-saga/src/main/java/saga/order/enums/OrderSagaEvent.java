@@ -11,4 +11,10 @@ public enum OrderSagaEvent {
     PAYMENT_COMPENSATED,
     PAYMENT_COMPENSATE_FAIL,
     INVENTORY_COMPENSATE_FAIL,
+
+    // 참여자가 응답하지 않은 step 의 deadline 이 지났을 때 (BinaryStateMachineContextCodec 때문에 뒤에만 추가한다)
+    PAYMENT_TIMEOUT,
+    INVENTORY_TIMEOUT,
+    PAYMENT_COMPENSATE_TIMEOUT,
+    INVENTORY_COMPENSATE_TIMEOUT,
 }
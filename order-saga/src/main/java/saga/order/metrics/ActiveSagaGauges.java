@@ -0,0 +1,56 @@
+package saga.order.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.SagaStatusCount;
+import saga.order.enums.OrderSagaState;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code saga.active} gauges: the number of sagas in each non-terminal state, across all nodes.
+ *
+ * The counts come from {@code saga_instance}, since the sagas of one state are spread over every node's
+ * lanes. They are refreshed with one grouped query on the {@code (status, id)} index every
+ * {@code saga.metrics.active-refresh-interval-ms}, not on each scrape.
+ */
+@Component
+@Slf4j
+public class ActiveSagaGauges {
+    private static final Set<OrderSagaState> ACTIVE = EnumSet.complementOf(
+        EnumSet.of(OrderSagaState.ORDER_COMPLETED, OrderSagaState.FAILED, OrderSagaState.COMPENSATED));
+
+    private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final Map<OrderSagaState, AtomicLong> counts = new EnumMap<>(OrderSagaState.class);
+
+    public ActiveSagaGauges(SagaInstanceJpaRepository sagaInstanceJpaRepository, MeterRegistry meterRegistry) {
+        this.sagaInstanceJpaRepository = sagaInstanceJpaRepository;
+        for (OrderSagaState state : ACTIVE) {
+            AtomicLong count = new AtomicLong();
+            counts.put(state, count);
+            Gauge.builder("saga.active", count, AtomicLong::get)
+                .description("Sagas currently in a non-terminal state")
+                .tag("state", state.name())
+                .register(meterRegistry);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${saga.metrics.active-refresh-interval-ms:15000}")
+    public void refresh() {
+        Map<OrderSagaState, Long> refreshed = new EnumMap<>(OrderSagaState.class);
+        for (SagaStatusCount statusCount : sagaInstanceJpaRepository.countByStatusIn(ACTIVE)) {
+            refreshed.put(statusCount.status(), statusCount.count());
+        }
+        // 결과에 없는 상태는 saga 가 하나도 없다
+        counts.forEach((state, count) -> count.set(refreshed.getOrDefault(state, 0L)));
+        log.debug("Active sagas: {}", refreshed);
+    }
+}
@@ -0,0 +1,129 @@
+package saga.order.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import saga.order.domain.repository.StepRoundTrip;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Round trip of each participant, from sending a step's command ({@code started_at}) to settling the step on
+ * its reply ({@code ended_at}), per participant ({@code aggregateType}) and step name.
+ *
+ * Replies are recorded into an HdrHistogram {@link Recorder} per participant and step, which the reply lanes
+ * write to without locking. Every {@code saga.latency.flush-interval-ms} the interval histograms are swapped out,
+ * logged, and published as {@code saga.participant.latency} gauges tagged with the percentile, so a scrape
+ * always sees the last complete interval. Steps that timed out are not replies and are not recorded.
+ */
+@Component
+@Slf4j
+public class ParticipantLatencyRecorder {
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 100.0};
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final MeterRegistry meterRegistry;
+    private final long highestTrackableMicros;
+    private final Map<Key, Interval> intervals = new ConcurrentHashMap<>();
+
+    public ParticipantLatencyRecorder(MeterRegistry meterRegistry,
+                                      @Value("${saga.latency.highest-trackable:1h}") Duration highestTrackable) {
+        this.meterRegistry = meterRegistry;
+        this.highestTrackableMicros = highestTrackable.toNanos() / 1_000;
+    }
+
+    /**
+     * Records the round trips of steps settled in the current transaction, once it committed, so a handler
+     * that is rolled back and retried does not count its replies twice.
+     *
+     * @param roundTrips the settled steps
+     */
+    public void record(List<StepRoundTrip> roundTrips) {
+        if (roundTrips.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    roundTrips.forEach(ParticipantLatencyRecorder.this::record);
+                }
+            });
+        } else {
+            roundTrips.forEach(this::record);
+        }
+    }
+
+    private void record(StepRoundTrip roundTrip) {
+        if (roundTrip.startedAt() == null || roundTrip.endedAt() == null) {
+            return;
+        }
+        long micros = Duration.between(roundTrip.startedAt(), roundTrip.endedAt()).toNanos() / 1_000;
+        // 시계가 뒤로 간 경우와 추적 범위를 넘는 값은 양 끝으로 자른다
+        long clamped = Math.min(Math.max(micros, 0), highestTrackableMicros);
+        intervals.computeIfAbsent(new Key(roundTrip.aggregateType(), roundTrip.stepName()), this::newInterval)
+            .recorder.recordValue(clamped);
+    }
+
+    private Interval newInterval(Key key) {
+        Interval interval = new Interval(new Recorder(highestTrackableMicros, SIGNIFICANT_DIGITS));
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            int index = i;
+            Gauge.builder("saga.participant.latency", interval, last -> last.millis[index])
+                .description("Participant round trip over the last flush interval, in milliseconds")
+                .baseUnit("milliseconds")
+                .tag("participant", String.valueOf(key.participant()))
+                .tag("step", String.valueOf(key.stepName()))
+                .tag("percentile", PERCENTILES[i] == 100.0 ? "max" : String.valueOf(PERCENTILES[i]))
+                .register(meterRegistry);
+        }
+        Gauge.builder("saga.participant.replies", interval, last -> last.count)
+            .description("Participant replies over the last flush interval")
+            .tag("participant", String.valueOf(key.participant()))
+            .tag("step", String.valueOf(key.stepName()))
+            .register(meterRegistry);
+        return interval;
+    }
+
+    @Scheduled(fixedDelayString = "${saga.latency.flush-interval-ms:60000}")
+    public void flush() {
+        intervals.forEach((key, interval) -> {
+            Histogram histogram = interval.recorder.getIntervalHistogram(interval.recycled);
+            interval.recycled = histogram;
+            interval.count = histogram.getTotalCount();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                interval.millis[i] = histogram.getValueAtPercentile(PERCENTILES[i]) / 1_000.0;
+            }
+            if (interval.count > 0) {
+                log.info("Round trip {}/{} over {} replies: p50={}ms p90={}ms p99={}ms p99.9={}ms max={}ms",
+                    key.participant(), key.stepName(), interval.count,
+                    interval.millis[0], interval.millis[1], interval.millis[2], interval.millis[3], interval.millis[4]);
+            }
+        });
+    }
+
+    private record Key(String participant, String stepName) {
+    }
+
+    private static final class Interval {
+        private final Recorder recorder;
+        // flush 는 scheduler thread 하나에서만 돈다. gauge 는 마지막으로 끝난 구간의 값을 읽는다
+        private Histogram recycled;
+        private volatile long count;
+        private final double[] millis = new double[PERCENTILES.length];
+
+        private Interval(Recorder recorder) {
+            this.recorder = recorder;
+        }
+    }
+}
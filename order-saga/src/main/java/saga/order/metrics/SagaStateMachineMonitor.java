@@ -0,0 +1,85 @@
+package saga.order.metrics;
+
+import infra.uuid.SnowflakeIds;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.monitor.AbstractStateMachineMonitor;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.stereotype.Component;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every transition of the saga state machines.
+ *
+ * {@code saga.transition} times each transition, actions included, tagged by source, target and event.
+ * The state machine measures it in milliseconds, so that is the resolution of this timer.
+ * When a transition ends a saga, {@code saga.duration} records the time since the saga was created,
+ * tagged by the terminal state. The creation time is decoded from the Snowflake saga id, so this never
+ * reads the saga row.
+ */
+@Component
+public class SagaStateMachineMonitor extends AbstractStateMachineMonitor<OrderSagaState, OrderSagaEvent> {
+    private static final Set<OrderSagaState> TERMINAL = EnumSet.of(OrderSagaState.ORDER_COMPLETED, OrderSagaState.FAILED, OrderSagaState.COMPENSATED);
+
+    private final MeterRegistry meterRegistry;
+    private final Map<TransitionKey, Timer> transitionTimers = new ConcurrentHashMap<>();
+    private final Map<OrderSagaState, Timer> sagaDurations = new EnumMap<>(OrderSagaState.class);
+
+    public SagaStateMachineMonitor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (OrderSagaState terminal : TERMINAL) {
+            sagaDurations.put(terminal, Timer.builder("saga.duration")
+                .description("Time from saga creation to its terminal state")
+                .tag("outcome", terminal.name())
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry));
+        }
+    }
+
+    @Override
+    public void transition(StateMachine<OrderSagaState, OrderSagaEvent> stateMachine,
+                           Transition<OrderSagaState, OrderSagaEvent> transition, long duration) {
+        if (transition.getSource() == null || transition.getTarget() == null) {
+            return;
+        }
+        OrderSagaState source = transition.getSource().getId();
+        OrderSagaState target = transition.getTarget().getId();
+        OrderSagaEvent event = transition.getTrigger() == null ? null : transition.getTrigger().getEvent();
+
+        transitionTimers.computeIfAbsent(new TransitionKey(source, target, event), this::transitionTimer).record(duration, TimeUnit.MILLISECONDS);
+
+        if (source != target && TERMINAL.contains(target)) {
+            recordSagaDuration(stateMachine.getId(), target);
+        }
+    }
+
+    private Timer transitionTimer(TransitionKey key) {
+        return Timer.builder("saga.transition")
+            .description("Saga state machine transitions, actions included")
+            .tag("source", key.source().name())
+            .tag("target", key.target().name())
+            .tag("event", key.event() == null ? "none" : key.event().name())
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private void recordSagaDuration(String sagaId, OrderSagaState terminal) {
+        Instant createdAt = SnowflakeIds.timestampOf(Long.parseLong(sagaId));
+        sagaDurations.get(terminal).record(Duration.between(createdAt, Instant.now()));
+    }
+
+    private record TransitionKey(OrderSagaState source, OrderSagaState target, OrderSagaEvent event) {
+    }
+}
@@ -0,0 +1,140 @@
+package saga.order.outbox;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import saga.order.domain.entity.OutboxEventEntity;
+import saga.order.domain.repository.OutboxEventJpaRepository;
+import saga.order.payload.PayloadCodec;
+import saga.order.tracing.SagaTracing;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes PENDING outbox rows to Kafka in batches.
+ *
+ * A batch is claimed with {@code FOR UPDATE SKIP LOCKED} so several nodes can relay concurrently, and the claim
+ * is committed right away as {@code IN_FLIGHT} with a lease of {@code outbox.relay.lease-ms}; no row lock or
+ * connection is held while the relay waits for the broker. Every row of the batch is sent without waiting on
+ * the previous one, and the rows that were acknowledged are flipped to PUBLISHED with a single UPDATE. Rows
+ * whose send failed, or that could not be turned into a record, go back to PENDING and are picked up again on
+ * the next poll without holding up the rest of the batch. Rows of a relay that died mid-batch are returned to
+ * PENDING once their lease expires, so the lease has to be longer than {@code outbox.relay.send-timeout-ms}.
+ *
+ * Payloads stored compressed (see {@link PayloadCodec}) are decompressed right before the send.
+ *
+ * The trace headers stored with a row are sent as record headers, so the participant sees the trace of the
+ * transition that wrote the command rather than one of the relay.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+@ConditionalOnProperty(name = "outbox.relay.enabled", havingValue = "true", matchIfMissing = true)
+public class OutboxRelay {
+    private final OutboxEventJpaRepository outboxEventJpaRepository;
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SagaTracing sagaTracing;
+    private final PayloadCodec payloadCodec;
+
+    @Value("${outbox.relay.batch-size:500}")
+    private int batchSize;
+
+    @Value("${outbox.relay.send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    @Value("${outbox.relay.lease-ms:60000}")
+    private long leaseMs;
+
+    @Scheduled(fixedDelayString = "${outbox.relay.poll-interval-ms:200}")
+    public void relay() {
+        Integer expired = transactionTemplate.execute(status -> outboxEventJpaRepository.releaseExpiredLeases(LocalDateTime.now()));
+        if (expired != null && expired > 0) {
+            log.warn("Returned {} outbox events whose relay lease expired to PENDING", expired);
+        }
+
+        // 꽉 찬 배치가 전부 발행된 경우에는 다음 poll 을 기다리지 않고 바로 이어서 비운다
+        int published;
+        do {
+            published = relayBatch();
+        } while (published == batchSize);
+    }
+
+    private int relayBatch() {
+        List<OutboxEventEntity> batch = transactionTemplate.execute(status -> claimBatch());
+        if (batch == null || batch.isEmpty()) {
+            return 0;
+        }
+
+        List<CompletableFuture<SendResult<String, String>>> futures = new ArrayList<>(batch.size());
+        for (OutboxEventEntity event : batch) {
+            try {
+                String payload = payloadCodec.read(event.getPayload(), event.getPayloadZstd());
+                ProducerRecord<String, String> record = new ProducerRecord<>(event.getTopic(), Objects.toString(event.getMessageKey(), null), payload);
+                sagaTracing.addHeaders(event.getTraceHeaders(), record.headers());
+                futures.add(kafkaTemplate.send(record));
+            } catch (RuntimeException e) {
+                log.error("Failed to build the kafka record of outbox event {} for topic: {}", event.getId(), event.getTopic(), e);
+                futures.add(null);
+            }
+        }
+
+        List<Long> publishedIds = new ArrayList<>(batch.size());
+        List<Long> failedIds = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxEventEntity event = batch.get(i);
+            CompletableFuture<SendResult<String, String>> future = futures.get(i);
+            if (future == null) {
+                failedIds.add(event.getId());
+                continue;
+            }
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                publishedIds.add(event.getId());
+            } catch (ExecutionException | TimeoutException e) {
+                log.error("Failed to relay outbox event {} to kafka topic: {}", event.getId(), event.getTopic(), e);
+                failedIds.add(event.getId());
+            } catch (InterruptedException e) {
+                // 남은 row 는 lease 가 끝나면 PENDING 으로 돌아간다
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!publishedIds.isEmpty()) {
+                outboxEventJpaRepository.updateStatusInBatch(publishedIds, OutboxEventEntity.EventStatus.PUBLISHED.name(), LocalDateTime.now());
+            }
+            if (!failedIds.isEmpty()) {
+                outboxEventJpaRepository.releaseLeases(failedIds);
+            }
+        });
+        log.debug("Relayed {}/{} outbox events", publishedIds.size(), batch.size());
+        return publishedIds.size();
+    }
+
+    private List<OutboxEventEntity> claimBatch() {
+        List<OutboxEventEntity> batch = outboxEventJpaRepository.claimPendingBatch(batchSize);
+        if (!batch.isEmpty()) {
+            List<Long> ids = batch.stream().map(OutboxEventEntity::getId).toList();
+            outboxEventJpaRepository.leaseBatch(ids, LocalDateTime.now().plus(Duration.ofMillis(leaseMs)));
+        }
+        return batch;
+    }
+}
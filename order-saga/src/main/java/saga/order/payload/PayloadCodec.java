@@ -0,0 +1,119 @@
+package saga.order.payload;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import saga.order.domain.entity.PayloadDictionaryEntity;
+import saga.order.domain.repository.PayloadDictionaryJpaRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the JSON of saga contexts, step commands and outbox payloads either as is, in the {@code json} column,
+ * or with {@code saga.payload.compression=zstd} as a zstd frame in the {@code *_zstd} blob column next to it.
+ * Exactly one of the two columns of a row is set.
+ *
+ * Frames are compressed with the newest dictionary in {@code payload_dictionary} (see
+ * {@link PayloadDictionaryTrainer}). zstd writes the dictionary id into the frame header, so a frame is decoded
+ * with the dictionary it was written with however many dictionaries were trained since; frames written before
+ * the first dictionary carry id 0 and are decoded without one.
+ *
+ * Loading an entity leaves the frame as bytes; it is only decompressed when a reader asks for the JSON through
+ * {@link #read}. Reading does not depend on the mode, so switching back to {@code none} keeps compressed rows
+ * readable.
+ */
+@Component
+@Slf4j
+public class PayloadCodec {
+    private static final long NO_DICTIONARY = 0;
+
+    private final PayloadDictionaryJpaRepository dictionaryRepository;
+    private final boolean compress;
+    private final int level;
+    private final Map<Long, ZstdDictDecompress> decompressors = new ConcurrentHashMap<>();
+    private volatile long dictionaryId = NO_DICTIONARY;
+    private volatile ZstdDictCompress compressor;
+
+    public PayloadCodec(PayloadDictionaryJpaRepository dictionaryRepository,
+                        @Value("${saga.payload.compression:none}") String compression,
+                        @Value("${saga.payload.level:3}") int level) {
+        this.dictionaryRepository = dictionaryRepository;
+        this.compress = "zstd".equals(compression);
+        this.level = level;
+    }
+
+    /**
+     * @param json the JSON to store, may be null
+     * @return the values of the {@code json} and the {@code *_zstd} column
+     */
+    public Stored write(String json) {
+        if (json == null || !compress) {
+            return new Stored(json, null);
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ZstdDictCompress dictionary = compressor;
+        return new Stored(null, dictionary == null ? Zstd.compress(bytes, level) : Zstd.compress(bytes, dictionary));
+    }
+
+    /**
+     * @param json  the value of the {@code json} column
+     * @param frame the value of the {@code *_zstd} column
+     * @return the stored JSON, or null if neither column is set
+     */
+    public String read(String json, byte[] frame) {
+        if (json != null || frame == null) {
+            return json;
+        }
+        int size = (int) Zstd.getFrameContentSize(frame);
+        long id = Zstd.getDictIdFromFrame(frame);
+        byte[] bytes = id == NO_DICTIONARY
+            ? Zstd.decompress(frame, size)
+            : Zstd.decompress(frame, decompressors.computeIfAbsent(id, this::loadDecompressor), size);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compresses with the given dictionary from now on.
+     *
+     * @param id         the zstd id of the dictionary
+     * @param dictionary a dictionary trained by {@code ZDICT}
+     */
+    public void use(long id, byte[] dictionary) {
+        decompressors.computeIfAbsent(id, key -> new ZstdDictDecompress(dictionary));
+        compressor = new ZstdDictCompress(dictionary, level);
+        dictionaryId = id;
+        log.info("Compressing saga payloads with dictionary {}", id);
+    }
+
+    /**
+     * Picks up a dictionary another node has trained.
+     */
+    @Scheduled(fixedDelayString = "${saga.payload.dictionary.refresh-interval-ms:60000}")
+    public void refresh() {
+        if (!compress) {
+            return;
+        }
+        dictionaryRepository.findFirstByOrderByCreatedAtDesc()
+            .filter(latest -> latest.getId() != dictionaryId)
+            .ifPresent(latest -> use(latest.getId(), latest.getDictionary()));
+    }
+
+    private ZstdDictDecompress loadDecompressor(long id) {
+        byte[] dictionary = dictionaryRepository.findById(id)
+            .map(PayloadDictionaryEntity::getDictionary)
+            .orElseThrow(() -> new IllegalStateException("No payload dictionary found for id: " + id));
+        return new ZstdDictDecompress(dictionary);
+    }
+
+    /**
+     * The column values of one payload: {@code json} without compression, {@code frame} with it.
+     */
+    public record Stored(String json, byte[] frame) {
+    }
+}
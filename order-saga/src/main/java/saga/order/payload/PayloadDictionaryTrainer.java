@@ -0,0 +1,104 @@
+package saga.order.payload;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import saga.order.domain.entity.PayloadDictionaryEntity;
+import saga.order.domain.repository.PayloadDictionaryJpaRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Trains the zstd dictionary {@link PayloadCodec} compresses with from the most recent saga contexts and step
+ * commands ({@code saga.payload.compression=zstd}).
+ *
+ * A saga payload is a few hundred bytes of JSON whose keys and most of whose structure repeat from row to row;
+ * on its own it leaves zstd little to work with, while a dictionary holding the common part shrinks it to the
+ * values. A new dictionary is trained once the newest one is older than {@code saga.payload.dictionary.retrain-after},
+ * so it follows changes of the payload classes. Old dictionaries are kept because rows compressed with them are.
+ */
+@Component
+@ConditionalOnProperty(name = "saga.payload.compression", havingValue = "zstd")
+@Slf4j
+public class PayloadDictionaryTrainer {
+    // 이보다 적으면 ZDICT 가 쓸 만한 dictionary 를 만들지 못하므로 다음 주기로 미룬다
+    private static final int MIN_SAMPLES = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PayloadDictionaryJpaRepository dictionaryRepository;
+    private final PayloadCodec payloadCodec;
+    private final int samples;
+    private final int dictionarySize;
+    private final Duration retrainAfter;
+
+    public PayloadDictionaryTrainer(JdbcTemplate jdbcTemplate,
+                                    PayloadDictionaryJpaRepository dictionaryRepository,
+                                    PayloadCodec payloadCodec,
+                                    @Value("${saga.payload.dictionary.samples:2000}") int samples,
+                                    @Value("${saga.payload.dictionary.size:16384}") int dictionarySize,
+                                    @Value("${saga.payload.dictionary.retrain-after:7d}") Duration retrainAfter) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionaryRepository = dictionaryRepository;
+        this.payloadCodec = payloadCodec;
+        this.samples = samples;
+        this.dictionarySize = dictionarySize;
+        this.retrainAfter = retrainAfter;
+    }
+
+    @Scheduled(fixedDelayString = "${saga.payload.dictionary.train-interval-ms:3600000}")
+    public void train() {
+        LocalDateTime now = LocalDateTime.now();
+        boolean fresh = dictionaryRepository.findFirstByOrderByCreatedAtDesc()
+            .filter(latest -> latest.getCreatedAt().isAfter(now.minus(retrainAfter)))
+            .isPresent();
+        if (fresh) {
+            return;
+        }
+
+        // ZDICT 권장대로 sample 은 dictionary 크기의 100 배 정도까지만 모은다
+        ZstdDictTrainer trainer = new ZstdDictTrainer(dictionarySize * 100, dictionarySize);
+        int added = addSamples(trainer, "SELECT context, context_zstd FROM saga_instance ORDER BY id DESC LIMIT ?")
+            + addSamples(trainer, "SELECT command, command_zstd FROM saga_step ORDER BY id DESC LIMIT ?");
+        if (added < MIN_SAMPLES) {
+            log.info("Not training a payload dictionary yet, only {} samples", added);
+            return;
+        }
+
+        byte[] dictionary;
+        try {
+            dictionary = trainer.trainSamples();
+        } catch (ZstdException e) {
+            log.warn("Failed to train a payload dictionary from {} samples", added, e);
+            return;
+        }
+        long id = Zstd.getDictIdFromDict(dictionary);
+        dictionaryRepository.save(new PayloadDictionaryEntity(id, dictionary, now));
+        payloadCodec.use(id, dictionary);
+        log.info("Trained payload dictionary {} ({} bytes) from {} samples", id, dictionary.length, added);
+    }
+
+    private int addSamples(ZstdDictTrainer trainer, String sql) {
+        List<String> payloads = jdbcTemplate.query(sql,
+            (rs, rowNum) -> payloadCodec.read(rs.getString(1), rs.getBytes(2)), samples);
+        int added = 0;
+        for (String payload : payloads) {
+            if (payload == null) {
+                continue;
+            }
+            if (!trainer.addSample(payload.getBytes(StandardCharsets.UTF_8))) {
+                break;
+            }
+            added++;
+        }
+        return added;
+    }
+}
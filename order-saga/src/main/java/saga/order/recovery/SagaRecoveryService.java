@@ -0,0 +1,314 @@
+package saga.order.recovery;
+
+import infra.uuid.SnowflakeIds;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import saga.order.config.statemachine.SagaTransitionExecutor;
+import saga.order.config.statemachine.StateMachineCache;
+import saga.order.domain.entity.SagaInstanceEntity;
+import saga.order.domain.entity.SagaStepEntity;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.SagaStepJpaRepository;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+import saga.order.sagaevent.dispatch.KeyOrderedDispatcher;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-drives sagas that were left between two transitions, on startup and whenever this node is assigned reply partitions.
+ *
+ * A run pages through the non-terminal {@code saga_instance} rows of each state with keyset pagination on
+ * {@code (status, id)} and hands every saga to the lane of its sagaId, so recovery never races the replies of
+ * that saga. The scan stops at the Snowflake id bound of the moment the run started: sagas created after
+ * that are driven by their own replies and would only make the scan chase the intake. At most {@code saga.recovery.parallelism} sagas are in flight; the scan waits for a permit
+ * before it dispatches the next one.
+ *
+ * On its lane the saga row is locked and its machine is restored from the persisted context. What happens
+ * next is decided from the steps of the current phase, the same way the reply listeners decide:
+ * <ul>
+ *   <li>a forward step FAILED, or every compensation step settled with one FAILED: the failure event of the phase</li>
+ *   <li>every step of the phase settled: {@link OrderSagaState#resolve}, the event that moves the saga on</li>
+ *   <li>steps are still pending: nothing. Their commands are either still PENDING in the outbox, which
+ *   {@code OutboxRelay} publishes on its own, or sent and covered by the step timing wheel.</li>
+ * </ul>
+ * A saga in {@code ORDER_CREATED} never sent its first command and is started again.
+ *
+ * Every node may run this at the same time: the row lock serializes them and the state is checked again under it.
+ * After a rebalance the cached machines may be older than what another node persisted in the meantime, so they
+ * are dropped before the run.
+ */
+@Component
+@Slf4j
+public class SagaRecoveryService implements ConsumerRebalanceListener, DisposableBean {
+    private static final Set<OrderSagaState> ACTIVE = EnumSet.of(
+        OrderSagaState.ORDER_CREATED,
+        OrderSagaState.PAYMENT_REQUESTED,
+        OrderSagaState.INVENTORY_RESRVING,
+        OrderSagaState.COMPENSATING_PAYMENT,
+        OrderSagaState.COMPENSATING_INVENTORY
+    );
+    private static final Set<SagaStepEntity.StepStatus> PENDING = EnumSet.of(SagaStepEntity.StepStatus.PENDING,
+        SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.COMPENSATING);
+
+    // 상태 → 그 phase 의 step 과 실패 event. 정방향은 첫 실패에서 바로, 보상은 모든 step 이 끝난 뒤에 실패로 넘어간다
+    private static final Map<OrderSagaState, Phase> PHASES = Map.of(
+        OrderSagaState.PAYMENT_REQUESTED, new Phase("paymentRequestCommand", OrderSagaEvent.PAYMENT_FAILURE, true),
+        OrderSagaState.INVENTORY_RESRVING, new Phase("inventoryReserve", OrderSagaEvent.INVENTORY_FAILURE, true),
+        OrderSagaState.COMPENSATING_PAYMENT, new Phase("inventoryFailurePaymentCompensate", OrderSagaEvent.PAYMENT_COMPENSATE_FAIL, false),
+        OrderSagaState.COMPENSATING_INVENTORY, new Phase("inventoryFailureInventoryCompensate", OrderSagaEvent.INVENTORY_COMPENSATE_FAIL, false)
+    );
+
+    private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final SagaStepJpaRepository sagaStepJpaRepository;
+    private final SagaTransitionExecutor sagaTransitionExecutor;
+    private final StateMachineCache stateMachineCache;
+    private final KeyOrderedDispatcher keyOrderedDispatcher;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(
+        Thread.ofPlatform().name("saga-recovery").daemon().factory());
+    private final AtomicInteger requested = new AtomicInteger();
+    private final AtomicBoolean ready = new AtomicBoolean();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Semaphore permits;
+    private final int parallelism;
+    private final int pageSize;
+    private final Counter redriven;
+    private final Counter waiting;
+    private final Counter failed;
+    private final Timer runs;
+
+    public SagaRecoveryService(SagaInstanceJpaRepository sagaInstanceJpaRepository,
+                               SagaStepJpaRepository sagaStepJpaRepository,
+                               SagaTransitionExecutor sagaTransitionExecutor,
+                               StateMachineCache stateMachineCache,
+                               KeyOrderedDispatcher keyOrderedDispatcher,
+                               MeterRegistry meterRegistry,
+                               @Value("${saga.recovery.parallelism:64}") int parallelism,
+                               @Value("${saga.recovery.page-size:500}") int pageSize) {
+        this.sagaInstanceJpaRepository = sagaInstanceJpaRepository;
+        this.sagaStepJpaRepository = sagaStepJpaRepository;
+        this.sagaTransitionExecutor = sagaTransitionExecutor;
+        this.stateMachineCache = stateMachineCache;
+        this.keyOrderedDispatcher = keyOrderedDispatcher;
+        this.permits = new Semaphore(parallelism);
+        this.parallelism = parallelism;
+        this.pageSize = pageSize;
+        this.redriven = outcome(meterRegistry, "redriven");
+        this.waiting = outcome(meterRegistry, "waiting");
+        this.failed = outcome(meterRegistry, "failed");
+        this.runs = Timer.builder("saga.recovery.duration")
+            .description("Time to scan and re-drive every active saga")
+            .register(meterRegistry);
+        Gauge.builder("saga.recovery.scanned", scanned, AtomicLong::get)
+            .description("Active sagas scanned by the current or last recovery run")
+            .register(meterRegistry);
+        Gauge.builder("saga.recovery.in-flight", inFlight, AtomicInteger::get)
+            .description("Sagas handed to their lane by recovery and not finished yet")
+            .register(meterRegistry);
+    }
+
+    private static Counter outcome(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("saga.recovery.sagas")
+            .description("Active sagas looked at by recovery")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        ready.set(true);
+        requestRecovery("startup");
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        // 기동 직후의 첫 assignment 는 startup 실행이 이미 다룬다
+        if (!partitions.isEmpty() && ready.get()) {
+            stateMachineCache.invalidateAll();
+            requestRecovery("assignment of " + partitions);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    }
+
+    /**
+     * Schedules a recovery run. Requests that arrive while a run is going on are folded into one more run.
+     *
+     * @param reason what triggered the run, for the log
+     */
+    public void requestRecovery(String reason) {
+        log.info("Saga recovery requested on {}", reason);
+        if (requested.getAndIncrement() == 0) {
+            coordinator.execute(this::drain);
+        }
+    }
+
+    /**
+     * @param status the status of a saga
+     * @return true if recovery may have to move a saga in this status
+     */
+    public boolean isActive(OrderSagaState status) {
+        return ACTIVE.contains(status);
+    }
+
+    /**
+     * Re-drives one saga on its lane, e.g. when its OrderCreatedEvent is delivered again.
+     *
+     * @param sagaId the saga id
+     * @param status the status the saga was seen in
+     */
+    public void recover(long sagaId, OrderSagaState status) {
+        keyOrderedDispatcher.execute(sagaId, () -> redrive(sagaId, status))
+            .whenComplete((done, e) -> count(sagaId, e));
+    }
+
+    private void drain() {
+        int seen;
+        do {
+            seen = requested.get();
+            try {
+                runs.recordCallable(this::recoverAll);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Saga recovery run failed", e);
+            }
+        } while (requested.addAndGet(-seen) > 0);
+    }
+
+    private Void recoverAll() throws InterruptedException {
+        long started = System.nanoTime();
+        scanned.set(0);
+        long before = SnowflakeIds.lowerBound(Instant.now());
+        for (OrderSagaState status : ACTIVE) {
+            long after = 0;
+            List<Long> sagaIds;
+            do {
+                sagaIds = sagaInstanceJpaRepository.findIdsByStatusBetween(status, after, before, Limit.of(pageSize));
+                for (long sagaId : sagaIds) {
+                    dispatch(sagaId, status);
+                }
+                scanned.addAndGet(sagaIds.size());
+                if (!sagaIds.isEmpty()) {
+                    after = sagaIds.get(sagaIds.size() - 1);
+                    log.info("Saga recovery scanned {} active sagas, now at {} {}", scanned.get(), status, after);
+                }
+            } while (sagaIds.size() == pageSize);
+        }
+        awaitInFlight();
+
+        log.info("Saga recovery went through {} active sagas in {} ms (since start: {} redriven, {} waiting, {} failed)",
+            scanned.get(), (System.nanoTime() - started) / 1_000_000,
+            (long) redriven.count(), (long) waiting.count(), (long) failed.count());
+        return null;
+    }
+
+    private void dispatch(long sagaId, OrderSagaState status) throws InterruptedException {
+        permits.acquire();
+        inFlight.incrementAndGet();
+        keyOrderedDispatcher.execute(sagaId, () -> redrive(sagaId, status))
+            .whenComplete((done, e) -> {
+                count(sagaId, e);
+                inFlight.decrementAndGet();
+                permits.release();
+            });
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        // 모든 permit 을 한 번 잡을 수 있으면 이번 실행이 넘긴 saga 는 다 끝났다
+        permits.acquire(parallelism);
+        permits.release(parallelism);
+    }
+
+    private void count(long sagaId, Throwable e) {
+        if (e != null) {
+            failed.increment();
+            log.error("Failed to recover sagaId: {}", sagaId, e);
+        }
+    }
+
+    private void redrive(long sagaId, OrderSagaState status) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdForUpdate(sagaId)
+            .orElseThrow(() -> new IllegalStateException("Saga not found for sagaId : " + sagaId));
+        // scan 이후 응답이나 다른 노드가 이미 옮겼다
+        if (sagaInstance.getStatus() != status) {
+            waiting.increment();
+            return;
+        }
+
+        OrderSagaEvent event = resumeEvent(sagaId, status);
+        if (event == null) {
+            waiting.increment();
+            return;
+        }
+
+        log.info("Recovering sagaId: {} in {} with {}", sagaId, status, event);
+        stateMachineCache.invalidate(sagaId);
+        sagaTransitionExecutor.fire(sagaId, status, MessageBuilder
+                .withPayload(event)
+                .setHeader("sagaId", sagaId)
+                .build())
+            .doOnSuccess(transited -> sagaInstance.setStatus(transited.getState().getId()))
+            .block();
+        redriven.increment();
+    }
+
+    private OrderSagaEvent resumeEvent(long sagaId, OrderSagaState status) {
+        Phase phase = PHASES.get(status);
+        if (phase == null) {
+            return OrderSagaState.resolve(status);
+        }
+
+        List<SagaStepEntity.StepStatus> steps = sagaStepJpaRepository.findStatuses(sagaId, phase.stepName());
+        // step 이 없으면 어느 쪽으로 끝났는지 알 수 없으므로 건드리지 않는다
+        if (steps.isEmpty()) {
+            log.warn("No {} steps found for sagaId: {} in {}, leaving it as is", phase.stepName(), sagaId, status);
+            return null;
+        }
+        boolean anyFailed = steps.contains(SagaStepEntity.StepStatus.FAILED);
+        if (anyFailed && phase.failFast()) {
+            return phase.failure();
+        }
+        if (steps.stream().anyMatch(PENDING::contains)) {
+            return null;
+        }
+        return anyFailed ? phase.failure() : OrderSagaState.resolve(status);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        coordinator.shutdownNow();
+        coordinator.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private record Phase(String stepName, OrderSagaEvent failure, boolean failFast) {
+    }
+}
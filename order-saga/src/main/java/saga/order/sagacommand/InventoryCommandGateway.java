@@ -5,10 +5,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.action.Action;
 import org.springframework.stereotype.Service;
+import saga.order.domain.SagaStepTracker;
 import saga.order.domain.entity.OutboxEventEntity;
 import saga.order.domain.entity.SagaInstanceEntity;
 import saga.order.domain.entity.SagaStepEntity;
@@ -17,15 +18,22 @@ import saga.order.domain.repository.SagaInstanceJpaRepository;
 import saga.order.domain.repository.SagaStepJpaRepository;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
+import saga.order.payload.PayloadCodec;
+import saga.order.timeout.SagaStepTimeouts;
+import saga.order.tracing.SagaTracing;
 import support.command.CommandGateway;
 import support.command.payload.CommandPayload;
 import support.command.payload.InvInvCompPayload;
+import support.command.payload.InventoryReserveBatchPayload;
 import support.command.payload.InventoryReservePayload;
 import support.event.event.OrderCreatedEvent;
 import support.uuid.UuidGenerator;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.PrimitiveIterator;
 
 import static org.springframework.util.StringUtils.hasText;
 
@@ -34,30 +42,44 @@ import static org.springframework.util.StringUtils.hasText;
 @RequiredArgsConstructor
 @Slf4j
 public class InventoryCommandGateway implements CommandGateway {
-    private final KafkaTemplate<String, String> kafkaTemplate;
     private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
     private final SagaStepJpaRepository sagaStepJpaRepository;
     private final UuidGenerator uuidGenerator;
     private final ObjectMapper mapper = new ObjectMapper();
     private final OutboxEventJpaRepository outboxEventJpaRepository;
+    private final SagaStepTracker sagaStepTracker;
+    private final SagaStepTimeouts sagaStepTimeouts;
+    private final SagaTracing sagaTracing;
+    private final PayloadCodec payloadCodec;
+
+    /**
+     * {@code per-item} sends one command per order line, {@code batch} sends one
+     * {@link InventoryReserveBatchPayload} per order and expects one aggregate reply.
+     */
+    @Value("${saga.inventory.reserve-mode:per-item}")
+    private String reserveMode;
 
     public Action<OrderSagaState, OrderSagaEvent> inventoryReserveCommand() {
         return context -> {
-            final String sagaId = getSagaId(context);
+            final long sagaId = getSagaId(context);
 
-            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
+            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
                 .orElseThrow(() -> new IllegalStateException("No saga instance found for sagaId: " + sagaId));
 
             OrderCreatedEvent request;
             try {
-                request = mapper.readValue(sagaInstance.getContext(), OrderCreatedEvent.class);
+                request = mapper.readValue(payloadCodec.read(sagaInstance.getContext(), sagaInstance.getContextZstd()), OrderCreatedEvent.class);
             } catch (JsonProcessingException e) {
                 throw new RuntimeException(e);
             }
 
-            int executionOrder = sagaInstance.getSagaSteps() == null ? 1 : sagaInstance.getSagaSteps().size();
+            int executionOrder = sagaStepTracker.beginPhase(sagaId, request.items().size());
+            PrimitiveIterator.OfLong reservationIds = uuidGenerator.nextIds(request.items().size()).iterator();
+            List<SagaStepEntity> sagaSteps = new ArrayList<>(request.items().size());
+            List<OutboxEventEntity> outboxEvents = new ArrayList<>(request.items().size());
+            List<InventoryReserveBatchPayload.Line> batchLines = new ArrayList<>();
             for(OrderCreatedEvent.OrderItem item : request.items()) {
-                String reservationId = String.valueOf(uuidGenerator.nextId());
+                String reservationId = String.valueOf(reservationIds.nextLong());
 
                 InventoryReservePayload payload = new InventoryReservePayload(
                     reservationId,
@@ -66,66 +88,106 @@ public class InventoryCommandGateway implements CommandGateway {
                     item.quantity()
                 );
 
-                SagaStepEntity sagaStep = saveSagaStep(sagaInstance, SagaStepEntity.StepType.FORWARD, SagaStepEntity.StepStatus.IN_PROGRESS, "inventoryReserve", reservationId, "inventory", payload, executionOrder++);
-                OutboxEventEntity outboxEvent = saveOutboxEvent("inventoryReserve", reservationId, sagaStep.getCommand(), OutboxEventEntity.EventStatus.PENDING);
-                log.info("Sending inventory reserve command to kafka topic: {}", sagaStep.getCommand());
-                kafkaTemplate.send("ord-inv-dec-cmd", sagaStep.getCommand())
-                    .whenComplete((result, ex) -> {
-                        if (ex == null) {
-                            log.info("Successfully sent inventory reserve command to kafka topic: {}", sagaStep.getCommand());
-                            outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.PUBLISHED.name(), LocalDateTime.now());
-                        } else {
-                            log.error("Failed to send inventory reserve command to kafka topic: {}", sagaStep.getCommand());
-                            outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.FAILED.name(), LocalDateTime.now());
-                        }
-                    });
+                SagaStepEntity sagaStep = newSagaStep(sagaInstance, SagaStepEntity.StepType.FORWARD, SagaStepEntity.StepStatus.IN_PROGRESS, "inventoryReserve", reservationId, "inventory", payload, executionOrder++);
+                sagaSteps.add(sagaStep);
+                if (isBatchReserve()) {
+                    batchLines.add(new InventoryReserveBatchPayload.Line(sagaStep.getId(), reservationId, item.productId(), item.quantity()));
+                } else {
+                    outboxEvents.add(newOutboxEvent("ord-inv-dec-cmd", sagaId, "inventoryReserve", reservationId, sagaStep));
+                }
             }
+
+            // batch 모드에서도 step 은 line 마다 남긴다. 응답의 line 결과가 각 step 에 기록되고 보상도 line 단위로 나간다
+            if (isBatchReserve()) {
+                InventoryReserveBatchPayload payload = new InventoryReserveBatchPayload(request.orderId(), batchLines);
+                payload.setSagaId(sagaId);
+                outboxEvents.add(newOutboxEvent("ord-inv-dec-batch-cmd", sagaId, "inventoryReserveBatch", request.orderId(), payloadCodec.write(serializePayload(payload))));
+            }
+
+            // flush 는 commit 때 한 번만 일어나고 hibernate 가 item 수만큼의 INSERT 를 JDBC batch 로 묶는다
+            sagaStepJpaRepository.saveAll(sagaSteps);
+            outboxEventJpaRepository.saveAll(outboxEvents);
+            sagaStepTimeouts.register(sagaSteps);
+            log.info("Queued {} inventory reserve commands for {} items in outbox for sagaId: {}", outboxEvents.size(), sagaSteps.size(), sagaId);
         };
     }
 
+    /**
+     * Releases the reservations that succeeded. Only {@code DONE} steps are compensated: a rejected line holds no
+     * stock, and a line that timed out is moved to {@code DONE} by its success reply if one still comes. If none
+     * succeeded the phase has no steps and {@code InvPayCompListener} moves the saga on with
+     * {@code INVENTORY_COMPENSATED} right away.
+     */
     public Action<OrderSagaState, OrderSagaEvent> inventoryFailureInventoryCompensateCommand() {
         return context -> {
-            final String sagaId = getSagaId(context);
+            final long sagaId = getSagaId(context);
 
-            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
-                .orElseThrow(() -> new IllegalStateException("No saga instance found for sagaId: " + sagaId));
+            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.getReferenceById(sagaId);
 
-            List<String> inventoryId = sagaInstance.getSagaSteps().stream()
-                .filter(step -> step.getStepName().equals("inventoryReserve"))
-                .map(SagaStepEntity::getAggregateId)
-                .toList();
-
-            for(String iid : inventoryId) {
-                InvInvCompPayload payload = new InvInvCompPayload(iid);
-                int executionOrder = sagaInstance.getSagaSteps() == null ? 1 : sagaInstance.getSagaSteps().size();
-
-                SagaStepEntity sagaStep = saveSagaStep(sagaInstance, SagaStepEntity.StepType.COMPENSATION, SagaStepEntity.StepStatus.COMPENSATING,"inventoryFailureInventoryCompensate", iid, "inventory", payload, executionOrder);
-                OutboxEventEntity outboxEvent = saveOutboxEvent("InventoryFailureInventoryCompensate", iid, sagaStep.getCommand(), OutboxEventEntity.EventStatus.PENDING);
-                log.info("Sending inventory failure compensation command to kafka topic: {}", sagaStep.getCommand());
-                kafkaTemplate.send("ord-inv-inv-comp-req", sagaStep.getCommand())
-                    .whenComplete((result, ex) -> {
-                        if (ex == null) {
-                            log.info("Successfully sent inventory failure compensation command to kafka topic: {}", sagaStep.getCommand());
-                            outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.PUBLISHED.name(), LocalDateTime.now());
-                        } else {
-                            log.error("Failed to send inventory failure compensation command to kafka topic: {}", sagaStep.getCommand());
-                            outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.FAILED.name(), LocalDateTime.now());
-                        }
-                    });
-            }
+            List<SagaStepEntity> reserved = sagaStepJpaRepository.findBySagaInstanceIdAndStepNameAndStatus(
+                sagaId, "inventoryReserve", SagaStepEntity.StepStatus.DONE);
+
+            int executionOrder = sagaStepTracker.beginPhase(sagaId, reserved.size());
+            queueCompensations(sagaInstance, reserved, executionOrder);
+            log.info("Queued {} inventory failure compensation commands in outbox for sagaId: {}", reserved.size(), sagaId);
         };
     }
 
+    /**
+     * Releases reservations whose success reply came after the saga left {@code INVENTORY_RESRVING} and after
+     * {@link #inventoryFailureInventoryCompensateCommand} collected the {@code DONE} steps, so nothing else
+     * would release them. While the saga is still in {@code COMPENSATING_INVENTORY} the new steps join that
+     * phase and are waited for like the others.
+     *
+     * @param sagaId the saga id
+     * @param stepIds the inventoryReserve steps whose success was just recorded
+     */
+    public void compensateLateReservations(long sagaId, Collection<Long> stepIds) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.getReferenceById(sagaId);
+
+        List<SagaStepEntity> reserved = sagaStepJpaRepository.findAllById(stepIds).stream()
+            .filter(step -> step.getStatus() == SagaStepEntity.StepStatus.DONE)
+            .toList();
+        if (reserved.isEmpty()) {
+            return;
+        }
+
+        int executionOrder = sagaStepTracker.joinPhase(sagaId, reserved.size(), OrderSagaState.COMPENSATING_INVENTORY);
+        queueCompensations(sagaInstance, reserved, executionOrder);
+        log.info("Queued {} inventory compensation commands for late reservations in outbox for sagaId: {}", reserved.size(), sagaId);
+    }
+
+    private void queueCompensations(SagaInstanceEntity sagaInstance, List<SagaStepEntity> reserved, int executionOrder) {
+        List<SagaStepEntity> sagaSteps = new ArrayList<>(reserved.size());
+        List<OutboxEventEntity> outboxEvents = new ArrayList<>(reserved.size());
+        for(SagaStepEntity reservation : reserved) {
+            String iid = reservation.getAggregateId();
+            InvInvCompPayload payload = new InvInvCompPayload(iid);
+
+            SagaStepEntity sagaStep = newSagaStep(sagaInstance, SagaStepEntity.StepType.COMPENSATION, SagaStepEntity.StepStatus.COMPENSATING,"inventoryFailureInventoryCompensate", iid, "inventory", payload, executionOrder++);
+            sagaSteps.add(sagaStep);
+            outboxEvents.add(newOutboxEvent("ord-inv-inv-comp-req", sagaInstance.getId(), "InventoryFailureInventoryCompensate", iid, sagaStep));
+        }
+
+        sagaStepJpaRepository.saveAll(sagaSteps);
+        outboxEventJpaRepository.saveAll(outboxEvents);
+        sagaStepTimeouts.register(sagaSteps);
+    }
+
     public Action<OrderSagaState, OrderSagaEvent> inventoryInventoryCompensateFailDLQ() {
         return context -> {};
     }
 
-    private String getSagaId(StateContext<OrderSagaState, OrderSagaEvent> context) {
+    private boolean isBatchReserve() {
+        return "batch".equals(reserveMode);
+    }
+
+    private long getSagaId(StateContext<OrderSagaState, OrderSagaEvent> context) {
         String sagaId = context.getStateMachine().getId();
         if(!hasText(sagaId)) {
             sagaId = context.getMessageHeader("sagaId").toString();
         }
-        return sagaId;
+        return Long.parseLong(sagaId);
     }
 
     private String serializePayload(Object payload) {
@@ -136,40 +198,47 @@ public class InventoryCommandGateway implements CommandGateway {
         }
     }
 
-    private SagaStepEntity saveSagaStep(SagaInstanceEntity sagaInstance, SagaStepEntity.StepType stepType, SagaStepEntity.StepStatus stepStatus, String stepName, String aggregateId, String aggregateType, CommandPayload command, int executionOrder) {
+    private SagaStepEntity newSagaStep(SagaInstanceEntity sagaInstance, SagaStepEntity.StepType stepType, SagaStepEntity.StepStatus stepStatus, String stepName, String aggregateId, String aggregateType, CommandPayload command, int executionOrder) {
         command.setSagaId(sagaInstance.getId());
-        command.setStepId(String.valueOf(uuidGenerator.nextId()));
-
-        String stringCommand = serializePayload(command);
-
-        return sagaStepJpaRepository.saveAndFlush(
-            SagaStepEntity.builder()
-                .id(command.getStepId())
-                .sagaInstance(sagaInstance)
-                .stepName(stepName)
-                .aggregateId(aggregateId)
-                .aggregateType(aggregateType)
-                .stepType(stepType)
-                .status(stepStatus)
-                .executionOrder(executionOrder)
-                .command(stringCommand)
-                .build()
-        );
+        command.setStepId(uuidGenerator.nextId());
+
+        PayloadCodec.Stored stored = payloadCodec.write(serializePayload(command));
+
+        return SagaStepEntity.builder()
+            .id(command.getStepId())
+            .sagaInstance(sagaInstance)
+            .stepName(stepName)
+            .aggregateId(aggregateId)
+            .aggregateType(aggregateType)
+            .stepType(stepType)
+            .status(stepStatus)
+            .executionOrder(executionOrder)
+            .command(stored.json())
+            .commandZstd(stored.frame())
+            .startedAt(LocalDateTime.now())
+            .build();
+    }
+
+    // step 의 command 가 곧 outbox payload 이므로 압축된 frame 을 그대로 옮긴다
+    private OutboxEventEntity newOutboxEvent(String topic, long sagaId, String eventType, String aggregateId, SagaStepEntity sagaStep) {
+        return newOutboxEvent(topic, sagaId, eventType, aggregateId, new PayloadCodec.Stored(sagaStep.getCommand(), sagaStep.getCommandZstd()));
     }
 
-    private OutboxEventEntity saveOutboxEvent(String eventType, String aggregateId, String payload, OutboxEventEntity.EventStatus status) {
-        return outboxEventJpaRepository.saveAndFlush(
-            OutboxEventEntity.builder()
-                .id(String.valueOf(uuidGenerator.nextId()))
-                .aggregateId(aggregateId)
-                .aggregateType("payment")
-                .eventType(eventType)
-                .messageType(OutboxEventEntity.MessageType.COMMAND)
-                .payload(payload)
-                .status(status)
-                .createdAt(LocalDateTime.now())
-                .publishedAt(LocalDateTime.now())
-                .build()
-        );
+    private OutboxEventEntity newOutboxEvent(String topic, long sagaId, String eventType, String aggregateId, PayloadCodec.Stored payload) {
+        // 발행은 OutboxRelay 가 배치로 처리하므로 여기서는 PENDING 으로 적재만 한다
+        return OutboxEventEntity.builder()
+            .id(uuidGenerator.nextId())
+            .topic(topic)
+            .messageKey(sagaId)
+            .aggregateId(aggregateId)
+            .aggregateType("inventory")
+            .eventType(eventType)
+            .messageType(OutboxEventEntity.MessageType.COMMAND)
+            .payload(payload.json())
+            .payloadZstd(payload.frame())
+            .status(OutboxEventEntity.EventStatus.PENDING)
+            .traceHeaders(sagaTracing.currentHeaders())
+            .createdAt(LocalDateTime.now())
+            .build();
     }
 }
@@ -5,10 +5,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.action.Action;
 import org.springframework.stereotype.Service;
+import saga.order.domain.SagaStepTracker;
 import saga.order.domain.entity.OutboxEventEntity;
 import saga.order.domain.entity.SagaInstanceEntity;
 import saga.order.domain.entity.SagaStepEntity;
@@ -17,6 +17,9 @@ import saga.order.domain.repository.SagaInstanceJpaRepository;
 import saga.order.domain.repository.SagaStepJpaRepository;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
+import saga.order.payload.PayloadCodec;
+import saga.order.timeout.SagaStepTimeouts;
+import saga.order.tracing.SagaTracing;
 import support.command.CommandGateway;
 import support.command.payload.CommandPayload;
 import support.command.payload.PayInvCompPayload;
@@ -25,6 +28,7 @@ import support.event.event.OrderCreatedEvent;
 import support.uuid.UuidGenerator;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.springframework.util.StringUtils.hasText;
@@ -34,24 +38,27 @@ import static org.springframework.util.StringUtils.hasText;
 @RequiredArgsConstructor
 @Slf4j
 public class PaymentCommandGateway implements CommandGateway {
-    private final KafkaTemplate<String, String> kafkaTemplate;
     private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
     private final SagaStepJpaRepository sagaStepJpaRepository;
     private final UuidGenerator uuidGenerator;
     private final ObjectMapper mapper = new ObjectMapper();
     private final OutboxEventJpaRepository outboxEventJpaRepository;
+    private final SagaStepTracker sagaStepTracker;
+    private final SagaStepTimeouts sagaStepTimeouts;
+    private final SagaTracing sagaTracing;
+    private final PayloadCodec payloadCodec;
 
     public Action<OrderSagaState, OrderSagaEvent> paymentRequestCommand() {
         return context -> {
-            final String sagaId = getSagaId(context);
+            final long sagaId = getSagaId(context);
             final String paymentId = String.valueOf(uuidGenerator.nextId());
 
-            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
+            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
                 .orElseThrow(() -> new IllegalStateException("No saga instance found for sagaId: " + sagaId));
 
             OrderCreatedEvent request = null;
             try {
-                request = mapper.readValue(sagaInstance.getContext(), OrderCreatedEvent.class);
+                request = mapper.readValue(payloadCodec.read(sagaInstance.getContext(), sagaInstance.getContextZstd()), OrderCreatedEvent.class);
             } catch (JsonProcessingException e) {
                 throw new RuntimeException(e);
             }
@@ -66,67 +73,72 @@ public class PaymentCommandGateway implements CommandGateway {
                 request.currency()
             );
 
-            int executionOrder = sagaInstance.getSagaSteps() == null ? 1 : sagaInstance.getSagaSteps().size();
-
-            SagaStepEntity sagaStep = saveSagaStep(sagaInstance, SagaStepEntity.StepType.FORWARD, SagaStepEntity.StepStatus.IN_PROGRESS,"paymentRequestCommand", paymentId, "payment", paymentRequestPayload, executionOrder);
-            OutboxEventEntity outboxEvent = saveOutboxEvent("PaymentRequest", paymentId, sagaStep.getCommand(), OutboxEventEntity.EventStatus.PENDING);
-            log.info("Sending payment request command to kafka topic: {}", sagaStep.getCommand());
-            kafkaTemplate.send("ord-pay-req-cmd", sagaStep.getCommand())
-                .whenComplete((result, ex) -> {
-                    if (ex == null) {
-                        log.info("Successfully sent payment request command to kafka topic: {}", sagaStep.getCommand());
-                        outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.PUBLISHED.name(), LocalDateTime.now());
-                    } else {
-                        log.error("Failed to send payment request command to kafka topic: {}", sagaStep.getCommand());
-                        outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.FAILED.name(), LocalDateTime.now());
-                    }
-                });
+            int executionOrder = sagaStepTracker.beginPhase(sagaId, 1);
+
+            SagaStepEntity sagaStep = sagaStepJpaRepository.save(newSagaStep(sagaInstance, SagaStepEntity.StepType.FORWARD, SagaStepEntity.StepStatus.IN_PROGRESS,"paymentRequestCommand", paymentId, "payment", paymentRequestPayload, executionOrder));
+            outboxEventJpaRepository.save(newOutboxEvent("ord-pay-req-cmd", sagaId, "PaymentRequest", paymentId, sagaStep));
+            sagaStepTimeouts.register(List.of(sagaStep));
+            log.info("Queued payment request command in outbox for sagaId: {}, stepId: {}", sagaId, sagaStep.getId());
         };
     }
 
     public Action<OrderSagaState, OrderSagaEvent> inventoryFailurePaymentCompensateCommand() {
         return context -> {
-            final String sagaId = getSagaId(context);
+            final long sagaId = getSagaId(context);
 
-            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
-                .orElseThrow(() -> new IllegalStateException("No saga instance found for sagaId: " + sagaId));
+            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.getReferenceById(sagaId);
 
-            List<String> paymentId = sagaInstance.getSagaSteps().stream()
-                .filter(step -> step.getStepName().equals("paymentRequestCommand"))
+            List<String> paymentId = sagaStepJpaRepository.findBySagaInstanceIdAndStepName(sagaId, "paymentRequestCommand").stream()
                 .map(SagaStepEntity::getAggregateId)
                 .toList();
 
+            int executionOrder = sagaStepTracker.beginPhase(sagaId, paymentId.size());
+            List<SagaStepEntity> sagaSteps = new ArrayList<>(paymentId.size());
+            List<OutboxEventEntity> outboxEvents = new ArrayList<>(paymentId.size());
             for(String pid : paymentId) {
                 PayInvCompPayload payload = new PayInvCompPayload(pid);
-                int executionOrder = sagaInstance.getSagaSteps() == null ? 1 : sagaInstance.getSagaSteps().size();
-
-                SagaStepEntity sagaStep = saveSagaStep(sagaInstance, SagaStepEntity.StepType.COMPENSATION, SagaStepEntity.StepStatus.COMPENSATING, "inventoryFailurePaymentCompensate", pid, "payment", payload, executionOrder);
-                OutboxEventEntity outboxEvent = saveOutboxEvent("inventoryFailurePaymentCompensate", pid, sagaStep.getCommand(), OutboxEventEntity.EventStatus.PENDING);
-                log.info("Sending inventory failure compensation command to kafka topic: {}", sagaStep.getCommand());
-                kafkaTemplate.send("ord-pay-inv-comp-req", sagaStep.getCommand())
-                    .whenComplete((result, ex) -> {
-                        if (ex == null) {
-                            log.info("Successfully sent inventory failure compensation command to kafka topic: {}", sagaStep.getCommand());
-                            outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.PUBLISHED.name(), LocalDateTime.now());
-                        } else {
-                            log.error("Failed to send inventory failure compensation command to kafka topic: {}", sagaStep.getCommand());
-                            outboxEventJpaRepository.updateStatusNative(outboxEvent.getId(), OutboxEventEntity.EventStatus.FAILED.name(), LocalDateTime.now());
-                        }
-                    });
+
+                SagaStepEntity sagaStep = newSagaStep(sagaInstance, SagaStepEntity.StepType.COMPENSATION, SagaStepEntity.StepStatus.COMPENSATING, "inventoryFailurePaymentCompensate", pid, "payment", payload, executionOrder++);
+                sagaSteps.add(sagaStep);
+                outboxEvents.add(newOutboxEvent("ord-pay-inv-comp-req", sagaId, "inventoryFailurePaymentCompensate", pid, sagaStep));
             }
+
+            sagaStepJpaRepository.saveAll(sagaSteps);
+            outboxEventJpaRepository.saveAll(outboxEvents);
+            sagaStepTimeouts.register(sagaSteps);
+            log.info("Queued {} inventory failure compensation commands in outbox for sagaId: {}", sagaSteps.size(), sagaId);
         };
     }
 
+    /**
+     * Refunds a payment whose success reply came after the payment step timed out and the saga ended in
+     * {@code FAILED}. The compensation is sent like the one of an inventory failure; its reply is only recorded
+     * on the step because the saga no longer waits for it.
+     *
+     * @param sagaId the saga id
+     * @param paymentStep the paymentRequestCommand step whose success was just recorded
+     */
+    public void compensateLatePayment(long sagaId, SagaStepEntity paymentStep) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.getReferenceById(sagaId);
+        String pid = paymentStep.getAggregateId();
+
+        int executionOrder = sagaStepTracker.joinPhase(sagaId, 1, OrderSagaState.COMPENSATING_PAYMENT);
+        SagaStepEntity sagaStep = sagaStepJpaRepository.save(newSagaStep(sagaInstance, SagaStepEntity.StepType.COMPENSATION, SagaStepEntity.StepStatus.COMPENSATING, "inventoryFailurePaymentCompensate", pid, "payment", new PayInvCompPayload(pid), executionOrder));
+        outboxEventJpaRepository.save(newOutboxEvent("ord-pay-inv-comp-req", sagaId, "inventoryFailurePaymentCompensate", pid, sagaStep));
+        sagaStepTimeouts.register(List.of(sagaStep));
+        log.info("Queued payment compensation command for late payment in outbox for sagaId: {}, stepId: {}", sagaId, sagaStep.getId());
+    }
+
     public Action<OrderSagaState, OrderSagaEvent> paymentInventoryCompensateFailDLQ() {
         return context -> {};
     }
 
-    private String getSagaId(StateContext<OrderSagaState, OrderSagaEvent> context) {
+    private long getSagaId(StateContext<OrderSagaState, OrderSagaEvent> context) {
         String sagaId = context.getStateMachine().getId();
         if(!hasText(sagaId)) {
             sagaId = context.getMessageHeader("sagaId").toString();
         }
-        return sagaId;
+        return Long.parseLong(sagaId);
     }
 
     private String serializePayload(Object payload) {
@@ -137,40 +149,47 @@ public class PaymentCommandGateway implements CommandGateway {
         }
     }
 
-    private SagaStepEntity saveSagaStep(SagaInstanceEntity sagaInstance, SagaStepEntity.StepType stepType, SagaStepEntity.StepStatus stepStatus, String stepName, String aggregateId, String aggregateType, CommandPayload command, int executionOrder) {
+    private SagaStepEntity newSagaStep(SagaInstanceEntity sagaInstance, SagaStepEntity.StepType stepType, SagaStepEntity.StepStatus stepStatus, String stepName, String aggregateId, String aggregateType, CommandPayload command, int executionOrder) {
         command.setSagaId(sagaInstance.getId());
-        command.setStepId(String.valueOf(uuidGenerator.nextId()));
-
-        String stringCommand = serializePayload(command);
-
-        return sagaStepJpaRepository.saveAndFlush(
-            SagaStepEntity.builder()
-                .id(command.getStepId())
-                .sagaInstance(sagaInstance)
-                .stepName(stepName)
-                .aggregateId(aggregateId)
-                .aggregateType(aggregateType)
-                .stepType(stepType)
-                .status(stepStatus)
-                .executionOrder(executionOrder)
-                .command(stringCommand)
-                .build()
-        );
+        command.setStepId(uuidGenerator.nextId());
+
+        PayloadCodec.Stored stored = payloadCodec.write(serializePayload(command));
+
+        return SagaStepEntity.builder()
+            .id(command.getStepId())
+            .sagaInstance(sagaInstance)
+            .stepName(stepName)
+            .aggregateId(aggregateId)
+            .aggregateType(aggregateType)
+            .stepType(stepType)
+            .status(stepStatus)
+            .executionOrder(executionOrder)
+            .command(stored.json())
+            .commandZstd(stored.frame())
+            .startedAt(LocalDateTime.now())
+            .build();
+    }
+
+    // step 의 command 가 곧 outbox payload 이므로 압축된 frame 을 그대로 옮긴다
+    private OutboxEventEntity newOutboxEvent(String topic, long sagaId, String eventType, String aggregateId, SagaStepEntity sagaStep) {
+        return newOutboxEvent(topic, sagaId, eventType, aggregateId, new PayloadCodec.Stored(sagaStep.getCommand(), sagaStep.getCommandZstd()));
     }
 
-    private OutboxEventEntity saveOutboxEvent(String eventType, String aggregateId, String payload, OutboxEventEntity.EventStatus status) {
-        return outboxEventJpaRepository.saveAndFlush(
-            OutboxEventEntity.builder()
-                .id(String.valueOf(uuidGenerator.nextId()))
-                .aggregateId(aggregateId)
-                .aggregateType("payment")
-                .eventType(eventType)
-                .messageType(OutboxEventEntity.MessageType.COMMAND)
-                .payload(payload)
-                .status(status)
-                .createdAt(LocalDateTime.now())
-                .publishedAt(LocalDateTime.now())
-                .build()
-        );
+    private OutboxEventEntity newOutboxEvent(String topic, long sagaId, String eventType, String aggregateId, PayloadCodec.Stored payload) {
+        // 발행은 OutboxRelay 가 배치로 처리하므로 여기서는 PENDING 으로 적재만 한다
+        return OutboxEventEntity.builder()
+            .id(uuidGenerator.nextId())
+            .topic(topic)
+            .messageKey(sagaId)
+            .aggregateId(aggregateId)
+            .aggregateType("payment")
+            .eventType(eventType)
+            .messageType(OutboxEventEntity.MessageType.COMMAND)
+            .payload(payload.json())
+            .payloadZstd(payload.frame())
+            .status(OutboxEventEntity.EventStatus.PENDING)
+            .traceHeaders(sagaTracing.currentHeaders())
+            .createdAt(LocalDateTime.now())
+            .build();
     }
 }
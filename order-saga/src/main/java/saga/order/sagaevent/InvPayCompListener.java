@@ -4,131 +4,103 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.statemachine.StateMachine;
-import org.springframework.statemachine.config.StateMachineFactory;
-import org.springframework.statemachine.persist.StateMachinePersister;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
-import reactor.core.publisher.Mono;
+import saga.order.config.statemachine.SagaTransitionExecutor;
+import saga.order.domain.SagaStepTracker;
 import saga.order.domain.entity.SagaInstanceEntity;
 import saga.order.domain.entity.SagaStepEntity;
 import saga.order.domain.repository.SagaInstanceJpaRepository;
 import saga.order.domain.repository.SagaStepJpaRepository;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
+import saga.order.sagaevent.dispatch.KeyOrderedDispatcher;
 import support.event.event.InvInvCompSuccessEvent;
 
-import java.util.List;
-
 @Component
 @RequiredArgsConstructor
 @Slf4j
-@Transactional
 public class InvPayCompListener {
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory;
-    private final StateMachinePersister<OrderSagaState, OrderSagaEvent, String> stateMachinePersister;
+    private final KeyOrderedDispatcher keyOrderedDispatcher;
+    private final SagaTransitionExecutor sagaTransitionExecutor;
+    private final SagaStepTracker sagaStepTracker;
 
     private final SagaStepJpaRepository sagaStepJpaRepository;
     private final SagaInstanceJpaRepository sagaInstanceRepository;
 
-    @KafkaListener(topics = "ord-pay-inv-comp-succ-evt", groupId = "order-saga")
-    public void handlePayInvCompSuccessEvent(String message) throws Exception {
+    @KafkaListener(topics = "ord-pay-inv-comp-succ-evt", groupId = "order-saga", containerFactory = KeyOrderedDispatcher.CONTAINER_FACTORY, autoStartup = KeyOrderedDispatcher.AUTO_STARTUP)
+    public void handlePayInvCompSuccessEvent(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) throws InterruptedException {
+        keyOrderedDispatcher.dispatch(record, acknowledgment, this::onPayInvCompSuccessEvent);
+    }
+
+    void onPayInvCompSuccessEvent(String message) throws Exception {
         log.info("PayInvComp success message received : {}", message);
 
-        InvInvCompSuccessEvent event = null;
         try {
-            event = objectMapper.readValue(message, InvInvCompSuccessEvent.class);
-            sagaStepJpaRepository.updateStatusByStepId(event.stepId(), SagaStepEntity.StepStatus.COMPENSATED);
-
-            String sagaId = event.sagaId();
-
-            List<SagaStepEntity> compensateSteps = sagaStepJpaRepository
-                .findBySagaInstanceIdAndStepName(sagaId, "inventoryFailurePaymentCompensate");
-
-            boolean allSuccess = compensateSteps.stream()
-                .allMatch(step -> step.getStatus() == SagaStepEntity.StepStatus.COMPENSATED);
-
-            if (allSuccess) {
-                SagaInstanceEntity saga = sagaInstanceRepository.findByIdWithStepsOrdered(sagaId)
-                    .orElseThrow(() -> new IllegalStateException("Saga not found"));
-
-                // Optionally trigger statemachine event to move to COMPENSATED state
-                StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(sagaId);
-                stateMachinePersister.restore(stateMachine, sagaId);
-
-                stateMachine.sendEvent(Mono.just(
-                        MessageBuilder
-                            .withPayload(OrderSagaEvent.INVENTORY_COMPENSATED)
-                            .setHeader("sagaId", sagaId)
-                            .build()
-                    ))
-                    .doOnComplete(() -> {
-                        try {
-                            stateMachinePersister.persist(stateMachine, sagaId);
-                            saga.setStatus(OrderSagaState.COMPENSATED);
-                            compensateSteps.forEach(step -> step.setStatus(SagaStepEntity.StepStatus.COMPENSATED));
-                        }catch (Exception e) {
-                            throw new RuntimeException("StateMachine persist failed", e);
-                        }
-                    })
-                    .subscribe();
+            InvInvCompSuccessEvent event = objectMapper.readValue(message, InvInvCompSuccessEvent.class);
+            long sagaId = event.sagaId();
+
+            boolean allReplied = sagaStepTracker.complete(sagaId, event.stepId(),
+                SagaStepEntity.StepStatus.COMPENSATING, SagaStepEntity.StepStatus.COMPENSATED, OrderSagaState.COMPENSATING_PAYMENT);
+
+            if (allReplied) {
+                onAllReplied(sagaId);
             }
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
 
-    @KafkaListener(topics = "ord-pay-inv-comp-fail-evt", groupId = "order-saga")
-    public void handlePayInvCompFailEvent(String message) throws Exception {
+    @KafkaListener(topics = "ord-pay-inv-comp-fail-evt", groupId = "order-saga", containerFactory = KeyOrderedDispatcher.CONTAINER_FACTORY, autoStartup = KeyOrderedDispatcher.AUTO_STARTUP)
+    public void handlePayInvCompFailEvent(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) throws InterruptedException {
+        keyOrderedDispatcher.dispatch(record, acknowledgment, this::onPayInvCompFailEvent);
+    }
+
+    void onPayInvCompFailEvent(String message) throws Exception {
         log.info("PayInvComp failure message received : {}", message);
 
-        InvInvCompSuccessEvent event = null;
         try {
-            event = objectMapper.readValue(message, InvInvCompSuccessEvent.class);
-            sagaStepJpaRepository.updateStatusByStepId(event.stepId(), SagaStepEntity.StepStatus.COMPENSATED);
-
-            String sagaId = event.sagaId();
-
-            SagaStepEntity sagaStep = sagaStepJpaRepository.findById(event.stepId())
-                .orElseThrow(() -> new IllegalStateException("Saga step not found"));
-            sagaStep.setStatus(SagaStepEntity.StepStatus.COMPENSATED);
-
-            List<SagaStepEntity> compensateSteps = sagaStepJpaRepository
-                .findBySagaInstanceIdAndStepName(sagaId, "inventoryFailurePaymentCompensate");
-
-            boolean allSuccess = compensateSteps.stream()
-                .allMatch(step -> step.getStatus() == SagaStepEntity.StepStatus.COMPENSATED);
-
-            if (allSuccess) {
-                SagaInstanceEntity saga = sagaInstanceRepository.findByIdWithStepsOrdered(sagaId)
-                    .orElseThrow(() -> new IllegalStateException("Saga not found"));
-
-                // Optionally trigger statemachine event to move to COMPENSATED state
-                StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(sagaId);
-                stateMachinePersister.restore(stateMachine, sagaId);
-
-                stateMachine.sendEvent(Mono.just(
-                        MessageBuilder
-                            .withPayload(OrderSagaEvent.PAYMENT_COMPENSATED)
-                            .setHeader("sagaId", sagaId)
-                            .build()
-                    ))
-                    .doOnComplete(() -> {
-                        try {
-                            stateMachinePersister.persist(stateMachine, sagaId);
-                            saga.setStatus(OrderSagaState.COMPENSATING_INVENTORY);
-                        }catch (Exception e) {
-                            throw new RuntimeException("StateMachine persist failed", e);
-                        }
-                    })
-                    .subscribe();
-            }
+            InvInvCompSuccessEvent event = objectMapper.readValue(message, InvInvCompSuccessEvent.class);
+            long sagaId = event.sagaId();
+
+            boolean allReplied = sagaStepTracker.complete(sagaId, event.stepId(),
+                SagaStepEntity.StepStatus.COMPENSATING, SagaStepEntity.StepStatus.FAILED, OrderSagaState.COMPENSATING_PAYMENT);
 
+            if (allReplied) {
+                onAllReplied(sagaId);
+            }
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
+
+    private void onAllReplied(long sagaId) {
+        SagaInstanceEntity saga = sagaInstanceRepository.findById(sagaId)
+            .orElseThrow(() -> new IllegalStateException("Saga not found"));
+
+        // 모든 결제 보상 응답이 모였을 때 하나라도 실패했으면 보상 실패로 끝낸다
+        boolean anyFailed = sagaStepJpaRepository.existsBySagaInstanceIdAndStepNameAndStatus(
+            sagaId, "inventoryFailurePaymentCompensate", SagaStepEntity.StepStatus.FAILED);
+
+        sagaTransitionExecutor.fire(sagaId, saga.getStatus(), MessageBuilder
+                .withPayload(anyFailed ? OrderSagaEvent.PAYMENT_COMPENSATE_FAIL : OrderSagaEvent.PAYMENT_COMPENSATED)
+                .setHeader("sagaId", sagaId)
+                .build())
+            .doOnSuccess(transited -> saga.setStatus(anyFailed ? OrderSagaState.FAILED : OrderSagaState.COMPENSATING_INVENTORY))
+            .block();
+
+        // 성공한 재고 예약이 하나도 없으면 재고 보상 phase 는 기다릴 응답이 없다
+        if (!anyFailed && sagaInstanceRepository.findOutstandingSteps(sagaId) == 0) {
+            sagaTransitionExecutor.fire(sagaId, saga.getStatus(), MessageBuilder
+                    .withPayload(OrderSagaEvent.INVENTORY_COMPENSATED)
+                    .setHeader("sagaId", sagaId)
+                    .build())
+                .doOnSuccess(transited -> saga.setStatus(OrderSagaState.COMPENSATED))
+                .block();
+        }
+    }
 }
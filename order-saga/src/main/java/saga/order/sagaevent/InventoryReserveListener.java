@@ -3,125 +3,185 @@ package saga.order.sagaevent;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.statemachine.StateMachine;
-import org.springframework.statemachine.config.StateMachineFactory;
-import org.springframework.statemachine.persist.StateMachinePersister;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
-import reactor.core.publisher.Mono;
+import saga.order.config.statemachine.SagaTransitionExecutor;
+import saga.order.domain.SagaStepTracker;
 import saga.order.domain.entity.SagaInstanceEntity;
 import saga.order.domain.entity.SagaStepEntity;
 import saga.order.domain.repository.OutboxEventJpaRepository;
 import saga.order.domain.repository.SagaInstanceJpaRepository;
-import saga.order.domain.repository.SagaStepJpaRepository;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
+import saga.order.sagacommand.InventoryCommandGateway;
+import saga.order.sagaevent.dispatch.KeyOrderedDispatcher;
+import support.event.event.InventoryReserveBatchResultEvent;
 import support.event.event.InventoryReserveFailedEvent;
-import support.event.event.PaymentFailedEvent;
+import support.event.event.InventoryReserveSucceedEvent;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import static saga.order.enums.OrderSagaState.COMPENSATING_PAYMENT;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
-@Transactional
 public class InventoryReserveListener {
+    // 이 상태에서 DONE 이 된 예약은 inventoryFailureInventoryCompensateCommand 가 보지 못한다
+    private static final Set<OrderSagaState> COMPENSATED_LATE = EnumSet.of(
+        OrderSagaState.COMPENSATING_INVENTORY, OrderSagaState.COMPENSATED, OrderSagaState.FAILED);
+
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory;
-    private final StateMachinePersister<OrderSagaState, OrderSagaEvent, String> stateMachinePersister;
+    private final KeyOrderedDispatcher keyOrderedDispatcher;
+    private final SagaTransitionExecutor sagaTransitionExecutor;
     private final OutboxEventJpaRepository outboxEventJpaRepository;
     private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
-    private final SagaStepJpaRepository sagaStepJpaRepository;
+    private final SagaStepTracker sagaStepTracker;
+    private final InventoryCommandGateway inventoryCommandGateway;
+
+    @KafkaListener(topics = "ord-inv-dec-succ-evt", groupId = "order-saga", containerFactory = KeyOrderedDispatcher.CONTAINER_FACTORY, autoStartup = KeyOrderedDispatcher.AUTO_STARTUP)
+    public void handleInventoryReserveSuccess(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) throws InterruptedException {
+        keyOrderedDispatcher.dispatch(record, acknowledgment, this::onInventoryReserveSuccess);
+    }
 
-    @KafkaListener(topics = "ord-inv-dec-succ-evt", groupId = "order-saga")
-    public void handleInventoryReserveSuccess(String message) throws Exception {
+    void onInventoryReserveSuccess(String message) throws Exception {
         log.info("inventory reserve success message received : {}", message);
 
         // 1. Kafka 메시지 파싱
-        PaymentFailedEvent event = objectMapper.readValue(message, PaymentFailedEvent.class);
-        String sagaId = event.sagaId();
-
-        SagaStepEntity sagaStep = sagaStepJpaRepository.findById(event.stepId())
-            .orElseThrow(() -> new IllegalStateException("Saga step not found for stepId : " + event.stepId() + " in sagaId : " + sagaId + " and message : " + message));
-        sagaStep.setStatus(SagaStepEntity.StepStatus.DONE);
-
-        List<SagaStepEntity> inventoryReserveStep = sagaStepJpaRepository
-            .findBySagaInstanceIdAndStepName(sagaId, "inventoryReserve");
-
-        boolean allSuccess = inventoryReserveStep.stream()
-            .allMatch(step -> step.getStatus() == SagaStepEntity.StepStatus.DONE);
-
-        if(allSuccess) {
-            SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
-                .orElseThrow(() -> new IllegalStateException("Saga not found for sagaId : " + sagaId));
-
-            StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(sagaId);
-            stateMachinePersister.restore(stateMachine, sagaId);
-
-            // 3. Saga 상태 전이
-            stateMachine.sendEvent(
-                    Mono.just(MessageBuilder
-                        .withPayload(OrderSagaEvent.INVENTORY_SUCCESS)
-                        .setHeader("sagaId", sagaId)
-                        .build()
-                    )
-                ).doOnComplete(() -> {
-                    try {
-                        stateMachinePersister.persist(stateMachine, sagaId);
-                        sagaInstance.setStatus(OrderSagaState.ORDER_COMPLETED);
-                    }catch (Exception e) {
-                        throw new RuntimeException("StateMachine persist failed", e);
-                    }
-                })
-                .subscribe();
+        InventoryReserveSucceedEvent event = objectMapper.readValue(message, InventoryReserveSucceedEvent.class);
+        long sagaId = event.sagaId();
+
+        if (sagaStepTracker.settle(event.stepId(), SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.DONE)) {
+            // 2. 마지막 재고 응답일 때만 전이한다 (이미 보상 중인 saga 의 응답은 세지 않는다)
+            if (sagaStepTracker.countDown(sagaId, OrderSagaState.INVENTORY_RESRVING)) {
+                // 3. Saga 상태 전이
+                onAllReserved(sagaId);
+            } else {
+                onReservedLate(sagaId, List.of(event.stepId()));
+            }
+        } else if (sagaStepTracker.settle(event.stepId(), SagaStepEntity.StepStatus.FAILED, SagaStepEntity.StepStatus.DONE)) {
+            // timeout 으로 FAILED 가 된 line 도 참가자는 재고를 잡았으므로 보상 대상이 된다
+            onReservedLate(sagaId, List.of(event.stepId()));
+        } else {
+            log.info("Ignoring inventory success for already settled step {} in sagaId : {}", event.stepId(), sagaId);
+            return;
         }
+        log.info("Inventory reserved for step {} in sagaId: {}", event.stepId(), sagaId);
+    }
 
 
-
-        System.out.println("Inventory reserved for sagaId: " + sagaId);
+    @KafkaListener(topics = "ord-inv-dec-fail-evt", groupId = "order-saga", containerFactory = KeyOrderedDispatcher.CONTAINER_FACTORY, autoStartup = KeyOrderedDispatcher.AUTO_STARTUP)
+    public void handleInventoryReserveFailure(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) throws InterruptedException {
+        keyOrderedDispatcher.dispatch(record, acknowledgment, this::onInventoryReserveFailure);
     }
 
-
-    @KafkaListener(topics = "ord-inv-dec-fail-evt", groupId = "order-saga")
-    public void handleInventoryReserveFailure(String message) throws Exception {
+    void onInventoryReserveFailure(String message) throws Exception {
         log.info("inventory reserve failure message received : {}", message);
 
         InventoryReserveFailedEvent event = objectMapper.readValue(message, InventoryReserveFailedEvent.class);
 
         // 1. Kafka 메시지 파싱
-        String sagaId = event.sagaId();
+        long sagaId = event.sagaId();
 
-        StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(sagaId);
-        stateMachinePersister.restore(stateMachine, sagaId);
+        if (!sagaStepTracker.settle(event.stepId(), SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.FAILED)) {
+            log.info("Ignoring inventory failure for already settled step {} in sagaId : {}", event.stepId(), sagaId);
+            return;
+        }
 
-        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
-            .orElseThrow(() -> new IllegalStateException("Saga not found for InstanceId : " + sagaId));
+        // 3. Saga 상태 전이
+        if (onReserveFailed(sagaId)) {
+            log.info("Inventory reservation failed for sagaId: {}", sagaId);
+        }
+    }
+
+    @KafkaListener(topics = "ord-inv-dec-batch-res-evt", groupId = "order-saga", containerFactory = KeyOrderedDispatcher.CONTAINER_FACTORY, autoStartup = KeyOrderedDispatcher.AUTO_STARTUP)
+    public void handleInventoryReserveBatchResult(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) throws InterruptedException {
+        keyOrderedDispatcher.dispatch(record, acknowledgment, this::onInventoryReserveBatchResult);
+    }
 
-        SagaStepEntity sagaStep = sagaStepJpaRepository.findById(event.stepId())
-                .orElseThrow(() -> new IllegalStateException("Saga step not found for stepId : " + event.stepId()));
+    void onInventoryReserveBatchResult(String message) throws Exception {
+        log.info("inventory reserve batch result message received : {}", message);
 
-        // 3. Saga 상태 전이
-        stateMachine.sendEvent(
-                Mono.just(
-                    MessageBuilder
-                        .withPayload(OrderSagaEvent.INVENTORY_FAILURE)
-                        .build()
-                )
-            ).doOnComplete(() -> {
-                try {
-                    stateMachinePersister.persist(stateMachine, sagaId);
-                    sagaInstance.setStatus(COMPENSATING_PAYMENT);
-                    sagaStep.setStatus(SagaStepEntity.StepStatus.FAILED);
-                }catch (Exception e) {
-                    throw new RuntimeException("StateMachine persist failed", e);
-                }
+        InventoryReserveBatchResultEvent event = objectMapper.readValue(message, InventoryReserveBatchResultEvent.class);
+        long sagaId = event.sagaId();
+
+        List<Long> reserved = new ArrayList<>(event.lines().size());
+        List<Long> rejected = new ArrayList<>();
+        for (InventoryReserveBatchResultEvent.LineResult line : event.lines()) {
+            if (line.succeeded()) {
+                reserved.add(line.stepId());
+            } else {
+                rejected.add(line.stepId());
+            }
+        }
+
+        // line 결과는 각자의 step 에 남긴다. 보상 command 는 이 step 들을 보고 line 단위로 만들어진다
+        int settled = sagaStepTracker.settleAll(reserved, SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.DONE);
+        boolean allSuccess = sagaStepTracker.countDown(sagaId, OrderSagaState.INVENTORY_RESRVING, settled);
+        // timeout 으로 FAILED 가 된 line 도 참가자는 재고를 잡았으므로 보상 대상이 된다
+        int revived = settled == reserved.size() ? 0
+            : sagaStepTracker.settleAll(reserved, SagaStepEntity.StepStatus.FAILED, SagaStepEntity.StepStatus.DONE);
+        boolean anyFailed = !rejected.isEmpty()
+            && sagaStepTracker.settleAll(rejected, SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.FAILED) > 0;
+
+        if (anyFailed) {
+            log.info("{} of {} inventory lines rejected for sagaId: {}", rejected.size(), event.lines().size(), sagaId);
+        }
+        if (anyFailed && onReserveFailed(sagaId)) {
+            return;
+        }
+        if (allSuccess) {
+            onAllReserved(sagaId);
+        } else if (settled + revived > 0) {
+            onReservedLate(sagaId, reserved);
+        }
+    }
+
+    private void onAllReserved(long sagaId) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
+            .orElseThrow(() -> new IllegalStateException("Saga not found for sagaId : " + sagaId));
+
+        sagaTransitionExecutor.fire(sagaId, sagaInstance.getStatus(), MessageBuilder
+                .withPayload(OrderSagaEvent.INVENTORY_SUCCESS)
+                .setHeader("sagaId", sagaId)
+                .build())
+            .doOnSuccess(transited -> {
+                sagaInstance.setStatus(OrderSagaState.ORDER_COMPLETED);
             })
-            .subscribe();
+            .block();
+    }
+
+    // 재고 보상이 DONE step 을 이미 모은 뒤에 온 성공 응답은 그 예약을 따로 보상해야 남지 않는다
+    private void onReservedLate(long sagaId, Collection<Long> stepIds) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
+            .orElseThrow(() -> new IllegalStateException("Saga not found for sagaId : " + sagaId));
+
+        if (COMPENSATED_LATE.contains(sagaInstance.getStatus())) {
+            inventoryCommandGateway.compensateLateReservations(sagaId, stepIds);
+        }
+    }
+
+    private boolean onReserveFailed(long sagaId) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
+            .orElseThrow(() -> new IllegalStateException("Saga not found for InstanceId : " + sagaId));
+
+        // 첫 실패에서 이미 보상으로 넘어갔으면 나머지 실패 응답은 step 상태만 남긴다
+        if (sagaInstance.getStatus() != OrderSagaState.INVENTORY_RESRVING) {
+            return false;
+        }
 
-        System.out.println("Inventory reservation failed for sagaId: " + sagaId);
+        sagaTransitionExecutor.fire(sagaId, sagaInstance.getStatus(), MessageBuilder
+                .withPayload(OrderSagaEvent.INVENTORY_FAILURE)
+                .build())
+            .doOnSuccess(transited -> sagaInstance.setStatus(COMPENSATING_PAYMENT))
+            .block();
+        return true;
     }
 }
@@ -6,21 +6,21 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.statemachine.StateMachine;
-import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.stereotype.Component;
-import reactor.core.publisher.Mono;
-import saga.order.config.statemachine.CustomStateMachinePersister;
+import saga.order.archive.SagaLookup;
+import saga.order.config.statemachine.SagaTransitionExecutor;
+import saga.order.domain.OrderIntakeFilter;
 import saga.order.domain.entity.SagaInstanceEntity;
 import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.SagaSummary;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
+import saga.order.payload.PayloadCodec;
+import saga.order.recovery.SagaRecoveryService;
 import support.command.payload.PaymentRequestPayload;
 import support.event.event.OrderCreatedEvent;
 import support.uuid.UuidGenerator;
 
-import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Optional;
 
 @Component
@@ -29,66 +29,62 @@ import java.util.Optional;
 @Transactional
 public class OrderCreatedListener {
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory;
-    private final CustomStateMachinePersister stateMachinePersister;
+    private final SagaTransitionExecutor sagaTransitionExecutor;
+    private final OrderIntakeFilter orderIntakeFilter;
+    private final SagaRecoveryService sagaRecoveryService;
+    private final SagaLookup sagaLookup;
     private final UuidGenerator uuidGenerator;
 
     private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final PayloadCodec payloadCodec;
 
     @KafkaListener(topics = "ord-ord-req-succ-event", groupId = "order-saga")
     public void handleOrderCreated(String message) throws Exception {
         // 1. Kafka 메시지 파싱
         OrderCreatedEvent event = objectMapper.readValue(message, OrderCreatedEvent.class);
-        final String sagaId = String.valueOf(uuidGenerator.nextId());
+        final String orderId = event.orderId();
 
-        StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(sagaId);
-        Optional<SagaInstanceEntity> sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId);
-
-        if(sagaInstance.isPresent()) {
-            stateMachinePersister.restore(stateMachine, sagaId);
-
-            // TODO : 복구 로직 필요함
-        } else {
-            sagaInstance = Optional.of(sagaInstanceJpaRepository.save(new SagaInstanceEntity(
-                sagaId,
-                "ORDER",
-                OrderSagaState.ORDER_CREATED,
-                message,
-                LocalDateTime.now(),
-                LocalDateTime.now(),
-                new ArrayList<>()
-            )));
-
-            // 3. Saga 상태 전이
-            stateMachine
-                .startReactively()
-                .thenMany(
-                    stateMachine.sendEvent(
-                        Mono.just(MessageBuilder
-                            .withPayload(OrderSagaEvent.START_ORDER)
-                            .setHeader("sagaId", sagaId)
-                            .setHeader("payload", new PaymentRequestPayload(
-                                event.orderId(),
-                                event.customerId(),
-                                String.valueOf(uuidGenerator.nextId()),
-                                event.paymentKey(),
-                                event.totalPrice(),
-                                event.paymentMethodId(),
-                                event.currency()
-                            ))
-                            .build()
-                        )
-                    )
-                ).doOnComplete(() -> {
-                    try {
-                        stateMachinePersister.persist(stateMachine, sagaId);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                })
-                .blockLast();
+        // 2. 중복 intake 확인. filter 에 없으면 처음 보는 주문이므로 조회 없이 바로 insert 한다
+        if (orderIntakeFilter.mightContain(orderId)) {
+            // archive 로 옮겨진 saga 도 이미 끝난 주문이다
+            Optional<SagaSummary> sagaInstance = sagaLookup.findByOrderId(orderId);
+            if (sagaInstance.isPresent()) {
+                SagaSummary existing = sagaInstance.get();
+                log.info("Ignoring redelivered OrderCreatedEvent for orderId: {}, sagaId: {} is already {}",
+                    orderId, existing.sagaId(), existing.status());
+                // 재배달은 이전 처리가 중간에 멈췄을 수 있다는 신호이므로 진행 중인 saga 는 복구에 넘긴다
+                if (sagaRecoveryService.isActive(existing.status())) {
+                    sagaRecoveryService.recover(existing.sagaId(), existing.status());
+                }
+                return;
+            }
         }
 
+        final long sagaId = uuidGenerator.nextId();
+        PayloadCodec.Stored context = payloadCodec.write(message);
+        // 다른 instance 가 같은 주문을 먼저 넣었으면 unique index 에 걸려 0 이 돌아온다
+        if (sagaInstanceJpaRepository.insertIfAbsent(sagaId, "ORDER", orderId, OrderSagaState.ORDER_CREATED.name(), context.json(), context.frame()) == 0) {
+            log.info("Ignoring OrderCreatedEvent for orderId: {}, another saga was created concurrently", orderId);
+            return;
+        }
+        orderIntakeFilter.put(orderId);
+        SagaInstanceEntity createdSaga = sagaInstanceJpaRepository.getReferenceById(sagaId);
 
+        // 3. Saga 상태 전이
+        sagaTransitionExecutor.start(sagaId, MessageBuilder
+                .withPayload(OrderSagaEvent.START_ORDER)
+                .setHeader("sagaId", sagaId)
+                .setHeader("payload", new PaymentRequestPayload(
+                    event.orderId(),
+                    event.customerId(),
+                    String.valueOf(uuidGenerator.nextId()),
+                    event.paymentKey(),
+                    event.totalPrice(),
+                    event.paymentMethodId(),
+                    event.currency()
+                ))
+                .build())
+            .doOnSuccess(started -> createdSaga.setStatus(OrderSagaState.PAYMENT_REQUESTED))
+            .block();
     }
 }
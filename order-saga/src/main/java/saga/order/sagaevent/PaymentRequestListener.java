@@ -3,105 +3,111 @@ package saga.order.sagaevent;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.statemachine.StateMachine;
-import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
-import reactor.core.publisher.Mono;
-import saga.order.config.statemachine.CustomStateMachinePersister;
+import saga.order.config.statemachine.SagaTransitionExecutor;
+import saga.order.domain.SagaStepTracker;
 import saga.order.domain.entity.SagaInstanceEntity;
 import saga.order.domain.entity.SagaStepEntity;
 import saga.order.domain.repository.SagaInstanceJpaRepository;
 import saga.order.domain.repository.SagaStepJpaRepository;
 import saga.order.enums.OrderSagaEvent;
 import saga.order.enums.OrderSagaState;
+import saga.order.sagacommand.PaymentCommandGateway;
+import saga.order.sagaevent.dispatch.KeyOrderedDispatcher;
 import support.event.event.PaymentFailedEvent;
 import support.event.event.PaymentSucceedEvent;
 
 @Slf4j
 @RequiredArgsConstructor
 @Component
-@Transactional
 public class PaymentRequestListener {
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final StateMachineFactory<OrderSagaState, OrderSagaEvent> stateMachineFactory;
-    private final CustomStateMachinePersister stateMachinePersister;
+    private final KeyOrderedDispatcher keyOrderedDispatcher;
+    private final SagaTransitionExecutor sagaTransitionExecutor;
     private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final SagaStepTracker sagaStepTracker;
     private final SagaStepJpaRepository sagaStepJpaRepository;
+    private final PaymentCommandGateway paymentCommandGateway;
 
-    @KafkaListener(topics = "ord-pay-req-succ-evt", groupId = "order-saga")
-    public void handlePaymentSuccess(String message) throws Exception {
+    @KafkaListener(topics = "ord-pay-req-succ-evt", groupId = "order-saga", containerFactory = KeyOrderedDispatcher.CONTAINER_FACTORY, autoStartup = KeyOrderedDispatcher.AUTO_STARTUP)
+    public void handlePaymentSuccess(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) throws InterruptedException {
+        keyOrderedDispatcher.dispatch(record, acknowledgment, this::onPaymentSuccess);
+    }
+
+    void onPaymentSuccess(String message) throws Exception {
         log.info("payment success message received : {}", message);
         // 1. Kafka 메시지 파싱
         PaymentSucceedEvent event = objectMapper.readValue(message, PaymentSucceedEvent.class);
-        String sagaId = event.sagaId();
+        long sagaId = event.sagaId();
 
-        StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(sagaId);
-        stateMachinePersister.restore(stateMachine, sagaId);
+        // 2. 중복 응답이면 step 이 이미 DONE 이므로 아무것도 하지 않는다
+        if (!sagaStepTracker.complete(sagaId, event.stepId(), SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.DONE, OrderSagaState.PAYMENT_REQUESTED)) {
+            // timeout 으로 FAILED 가 된 결제도 참가자는 돈을 받았으므로 환불해야 한다
+            if (sagaStepTracker.settle(event.stepId(), SagaStepEntity.StepStatus.FAILED, SagaStepEntity.StepStatus.DONE)) {
+                onPaidLate(sagaId, event.stepId());
+            } else {
+                log.info("Ignoring payment success for already settled step {} in sagaId : {}", event.stepId(), sagaId);
+            }
+            return;
+        }
 
-        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
             .orElseThrow(() -> new IllegalStateException("Saga not found for instanceId : " + sagaId));
 
-        SagaStepEntity sagaStep = sagaStepJpaRepository.findById(event.stepId())
-             .orElseThrow(() -> new IllegalStateException("Saga step not found for stepId : "+ event.stepId()));
-
         // 3. Saga 상태 전이
-        stateMachine.sendEvent(
-                Mono.just(MessageBuilder
-                    .withPayload(OrderSagaEvent.PAYMENT_SUCCESS)
-                    .setHeader("sagaId", sagaId)
-                    .build()
-                )
-            ).doOnComplete(() -> {
-                try {
-                    stateMachinePersister.persist(stateMachine, sagaId);
-                    sagaInstance.setStatus(OrderSagaState.INVENTORY_RESRVING);
-                    sagaStep.setStatus(SagaStepEntity.StepStatus.DONE);
-                } catch (Exception e) {
-                    log.error("Error persisting state machine {}", sagaId, e);
-                }
-            })
-            .subscribe();
+        sagaTransitionExecutor.fire(sagaId, sagaInstance.getStatus(), MessageBuilder
+                .withPayload(OrderSagaEvent.PAYMENT_SUCCESS)
+                .setHeader("sagaId", sagaId)
+                .setHeader("stepId", event.stepId())
+                .build())
+            .doOnSuccess(transited -> sagaInstance.setStatus(OrderSagaState.INVENTORY_RESRVING))
+            .block();
+    }
+
+    private void onPaidLate(long sagaId, long stepId) {
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
+            .orElseThrow(() -> new IllegalStateException("Saga not found for instanceId : " + sagaId));
+
+        if (sagaInstance.getStatus() == OrderSagaState.FAILED) {
+            log.warn("Payment step {} of sagaId: {} succeeded after it timed out, refunding", stepId, sagaId);
+            paymentCommandGateway.compensateLatePayment(sagaId, sagaStepJpaRepository.getReferenceById(stepId));
+        }
     }
 
     // KafkaListener는 병렬성이 있는 경우 groupId 필수
-    @KafkaListener(topics = "ord-pay-req-fail-evt", groupId = "order-saga")
-    public void handlePaymentFailure(String message) throws Exception {
+    @KafkaListener(topics = "ord-pay-req-fail-evt", groupId = "order-saga", containerFactory = KeyOrderedDispatcher.CONTAINER_FACTORY, autoStartup = KeyOrderedDispatcher.AUTO_STARTUP)
+    public void handlePaymentFailure(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) throws InterruptedException {
+        keyOrderedDispatcher.dispatch(record, acknowledgment, this::onPaymentFailure);
+    }
+
+    void onPaymentFailure(String message) throws Exception {
         log.info("payment failure message received : {}", message);
 
         // 1. Kafka 메시지 파싱
         PaymentFailedEvent event = objectMapper.readValue(message, PaymentFailedEvent.class);
-        String sagaId = event.sagaId();
+        long sagaId = event.sagaId();
 
-        StateMachine<OrderSagaState, OrderSagaEvent> stateMachine = stateMachineFactory.getStateMachine(sagaId);
-        stateMachinePersister.restore(stateMachine, sagaId);
+        // 2. 중복 응답이면 step 이 이미 FAILED 이므로 아무것도 하지 않는다
+        if (!sagaStepTracker.settle(event.stepId(), SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.FAILED)) {
+            log.info("Ignoring payment failure for already settled step {} in sagaId : {}", event.stepId(), sagaId);
+            return;
+        }
 
-        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdWithStepsOrdered(sagaId)
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findById(sagaId)
             .orElseThrow(() -> new IllegalStateException("Saga not found for instanceId : " + sagaId));
 
-        SagaStepEntity sagaStep = sagaStepJpaRepository.findById(event.stepId())
-                .orElseThrow(() -> new IllegalStateException("Saga step not found for stepId : " + event.stepId()));
-
         // 3. Saga 상태 전이
-        stateMachine.sendEvent(
-                Mono.just(MessageBuilder
-                    .withPayload(OrderSagaEvent.PAYMENT_FAILURE)
-                    .setHeader("sagaId", sagaId)
-                    .build()
-                )
-            ).doOnComplete(() -> {
-                try {
-                    // 4. 상태 저장
-                    stateMachinePersister.persist(stateMachine, sagaId);
-                    sagaInstance.setStatus(OrderSagaState.FAILED);
-                    sagaStep.setStatus(SagaStepEntity.StepStatus.FAILED);
-                }catch (Exception e) {
-                    throw new RuntimeException("StateMachine persist failed", e);
-                }
-            })
-            .subscribe();
+        sagaTransitionExecutor.fire(sagaId, sagaInstance.getStatus(), MessageBuilder
+                .withPayload(OrderSagaEvent.PAYMENT_FAILURE)
+                .setHeader("sagaId", sagaId)
+                .setHeader("stepId", event.stepId())
+                .build())
+            .doOnSuccess(transited -> sagaInstance.setStatus(OrderSagaState.FAILED))
+            .block();
 
         // 5. 실패 알림 및 보상 트랜잭션 트리거 등 후처리 가능
 //        System.out.println("Payment failed for sagaId: " + sagaId + ". Saga transitioned to FAILED.");
@@ -0,0 +1,147 @@
+package saga.order.sagaevent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.receiver.ReceiverPartition;
+import reactor.kafka.receiver.ReceiverRecord;
+import reactor.util.retry.Retry;
+import saga.order.recovery.SagaRecoveryService;
+import saga.order.sagaevent.dispatch.KeyOrderedDispatcher;
+import saga.order.sagaevent.dispatch.KeyOrderedDispatcher.MessageHandler;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reactive alternative to the reply {@code @KafkaListener} containers, enabled with {@code saga.reply.mode=reactive}.
+ *
+ * Records are grouped into lanes by sagaId; each lane handles its records one after another while up
+ * to {@code lanes} lanes run at once. Demand only flows upstream as lanes finish, so the receiver pauses
+ * the consumer instead of buffering when the lanes fall behind. A record is acknowledged after its
+ * transition was persisted, and with deferred commits a partition is committed only up to the lowest
+ * offset that has not been acknowledged yet.
+ *
+ * The handlers themselves still use JPA, so they run on a bounded elastic scheduler rather than on the
+ * receiver thread; the blocking part is confined there instead of being spread over consumer threads.
+ *
+ * An error on the receive flux would otherwise end the subscription for good, so the receiver resubscribes
+ * with an exponential backoff and counts each restart in {@code saga.reply.receiver.restarts}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+@ConditionalOnProperty(name = "saga.reply.mode", havingValue = "reactive")
+public class ReactiveSagaReplyReceiver implements SmartLifecycle {
+    private final ConsumerFactory<String, String> consumerFactory;
+    private final KeyOrderedDispatcher keyOrderedDispatcher;
+    private final PaymentRequestListener paymentRequestListener;
+    private final InventoryReserveListener inventoryReserveListener;
+    private final InvPayCompListener invPayCompListener;
+    private final InvInvCompListener invInvCompListener;
+    private final SagaRecoveryService sagaRecoveryService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${saga.dispatch.lanes:16}")
+    private int lanes;
+
+    @Value("${saga.dispatch.max-in-flight:1000}")
+    private int maxInFlight;
+
+    @Value("${saga.reply.receiver.min-backoff:1s}")
+    private Duration minBackoff;
+
+    @Value("${saga.reply.receiver.max-backoff:1m}")
+    private Duration maxBackoff;
+
+    private Scheduler scheduler;
+    private Disposable subscription;
+
+    @Override
+    public void start() {
+        Map<String, MessageHandler> handlers = handlers();
+
+        Map<String, Object> config = new HashMap<>(consumerFactory.getConfigurationProperties());
+        config.put(ConsumerConfig.GROUP_ID_CONFIG, "order-saga");
+        config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        ReceiverOptions<String, String> options = ReceiverOptions.<String, String>create(config)
+            .subscription(handlers.keySet())
+            .addAssignListener(partitions -> sagaRecoveryService.onPartitionsAssigned(
+                partitions.stream().map(ReceiverPartition::topicPartition).toList()))
+            .maxDeferredCommits(maxInFlight)
+            .commitInterval(Duration.ofSeconds(1));
+
+        Counter restarts = Counter.builder("saga.reply.receiver.restarts")
+            .description("Times the reactive saga reply receiver resubscribed after its receive flux failed")
+            .register(meterRegistry);
+        scheduler = Schedulers.newBoundedElastic(lanes, maxInFlight, "saga-reply");
+        // 재구독하면 새 consumer 가 group 에 다시 들어와 commit 된 offset 부터 읽는다
+        subscription = KafkaReceiver.create(options)
+            .receive()
+            .groupBy(record -> Math.floorMod(keyOrderedDispatcher.keyOf(record).hashCode(), lanes))
+            .flatMap(lane -> lane.concatMap(record -> handle(record, handlers.get(record.topic()))), lanes)
+            .retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff)
+                .maxBackoff(maxBackoff)
+                .transientErrors(true)
+                .doBeforeRetry(retry -> {
+                    restarts.increment();
+                    log.warn("Reactive saga reply receiver failed, resubscribing (attempt {})",
+                        retry.totalRetriesInARow() + 1, retry.failure());
+                }))
+            .subscribe(
+                record -> { },
+                e -> log.error("Reactive saga reply receiver stopped", e)
+            );
+        log.info("Reactive saga reply receiver started for topics {}", handlers.keySet());
+    }
+
+    private Mono<ReceiverRecord<String, String>> handle(ReceiverRecord<String, String> record, MessageHandler handler) {
+        return Mono.fromRunnable(() -> keyOrderedDispatcher.handle(record, handler))
+            .subscribeOn(scheduler)
+            .doFinally(signal -> record.receiverOffset().acknowledge())
+            .thenReturn(record);
+    }
+
+    private Map<String, MessageHandler> handlers() {
+        Map<String, MessageHandler> handlers = new HashMap<>();
+        handlers.put("ord-pay-req-succ-evt", paymentRequestListener::onPaymentSuccess);
+        handlers.put("ord-pay-req-fail-evt", paymentRequestListener::onPaymentFailure);
+        handlers.put("ord-inv-dec-succ-evt", inventoryReserveListener::onInventoryReserveSuccess);
+        handlers.put("ord-inv-dec-fail-evt", inventoryReserveListener::onInventoryReserveFailure);
+        handlers.put("ord-inv-dec-batch-res-evt", inventoryReserveListener::onInventoryReserveBatchResult);
+        handlers.put("ord-pay-inv-comp-succ-evt", invPayCompListener::onPayInvCompSuccessEvent);
+        handlers.put("ord-pay-inv-comp-fail-evt", invPayCompListener::onPayInvCompFailEvent);
+        handlers.put("ord-inv-inv-comp-succ-evt", invInvCompListener::onInvInvCompSuccessEvent);
+        handlers.put("ord-inv-inv-comp-fail-evt", invInvCompListener::onInvInvCompFailEvent);
+        return handlers;
+    }
+
+    @Override
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+        if (scheduler != null) {
+            scheduler.dispose();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return subscription != null && !subscription.isDisposed();
+    }
+}
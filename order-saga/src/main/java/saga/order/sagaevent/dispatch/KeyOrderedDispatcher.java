@@ -0,0 +1,248 @@
+package saga.order.sagaevent.dispatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import saga.order.tracing.SagaTracing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans saga reply records out to worker lanes hashed by sagaId.
+ *
+ * Each lane is a single thread, so records of one saga are still handled one at a time and in
+ * partition order, while different sagas of the same partition no longer wait on each other.
+ * A record is acknowledged once its handler finished (or gave up), and the async-ack container
+ * commits only up to the lowest offset that is still in flight.
+ *
+ * The number of records handed off but not yet finished is bounded by {@code max-in-flight};
+ * when the lanes are saturated the consumer thread blocks in {@link #dispatch} instead of polling more.
+ *
+ * With {@code spring.threads.virtual.enabled} the lanes are virtual threads, so far more lanes than
+ * cores are cheap. Lanes mostly wait on MySQL either way, and the number of transactions open at
+ * once is capped at the Hikari pool size so extra lanes queue on a permit instead of on the pool.
+ * State machine actions run on the thread that sends the event, so they run on the lane as well.
+ *
+ * Replies that were already handled are dropped by {@link ReplyIdempotencyGuard} before a transaction
+ * permit is taken.
+ */
+@Component
+@Slf4j
+public class KeyOrderedDispatcher implements DisposableBean {
+    public static final String CONTAINER_FACTORY = "asyncAckKafkaListenerContainerFactory";
+    // saga.reply.mode=reactive 이면 reply 토픽은 ReactiveSagaReplyReceiver 가 읽으므로 listener container 는 띄우지 않는다
+    public static final String AUTO_STARTUP = "#{'${saga.reply.mode:container}' != 'reactive'}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final TransactionTemplate transactionTemplate;
+    private final ReplyIdempotencyGuard replyIdempotencyGuard;
+    private final SagaTracing sagaTracing;
+    private final ExecutorService[] lanes;
+    private final Semaphore inFlight;
+    private final Semaphore transactions;
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final int maxAttempts;
+
+    public KeyOrderedDispatcher(TransactionTemplate transactionTemplate,
+                                ReplyIdempotencyGuard replyIdempotencyGuard,
+                                SagaTracing sagaTracing,
+                                MeterRegistry meterRegistry,
+                                @Value("${saga.dispatch.lanes:16}") int laneCount,
+                                @Value("${saga.dispatch.max-in-flight:1000}") int maxInFlight,
+                                @Value("${saga.dispatch.max-attempts:3}") int maxAttempts,
+                                @Value("${saga.dispatch.max-concurrent-transactions:${spring.datasource.hikari.maximum-pool-size:10}}") int maxConcurrentTransactions,
+                                @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.transactionTemplate = transactionTemplate;
+        this.replyIdempotencyGuard = replyIdempotencyGuard;
+        this.sagaTracing = sagaTracing;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.transactions = new Semaphore(maxConcurrentTransactions);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "saga-lane-" + i;
+            ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name(name).factory()
+                : runnable -> new Thread(runnable, name);
+            lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+        Gauge.builder("saga.dispatch.in-flight", inFlightCount, AtomicInteger::get)
+            .description("Saga reply records handed to a lane but not yet acknowledged")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Hands the record to the lane of its saga and acknowledges it after the handler ran in its own transaction.
+     *
+     * @param record the consumed record, keyed by sagaId
+     * @param acknowledgment the acknowledgment of the record
+     * @param handler the listener logic, called with the record value
+     */
+    public void dispatch(ConsumerRecord<String, String> record, Acknowledgment acknowledgment, MessageHandler handler) throws InterruptedException {
+        String key = keyOf(record);
+        inFlight.acquire();
+        inFlightCount.incrementAndGet();
+        try {
+            laneOf(key).execute(() -> {
+                try {
+                    handle(record, handler);
+                } finally {
+                    acknowledgment.acknowledge();
+                    inFlightCount.decrementAndGet();
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightCount.decrementAndGet();
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs work that does not come from a reply record, such as a step timeout, on the lane of its saga and in
+     * its own transaction, so it never races the replies of that saga.
+     *
+     * @param sagaId the saga id
+     * @param task the work to run inside the transaction
+     * @return completes after the transaction committed, or exceptionally if the task or the commit failed
+     */
+    public CompletableFuture<Void> execute(long sagaId, Runnable task) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                transactions.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a transaction permit", e);
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> task.run());
+            } finally {
+                transactions.release();
+            }
+        // reply record 의 key 와 같은 문자열로 lane 을 골라야 같은 saga 가 같은 lane 에 선다
+        }, laneOf(String.valueOf(sagaId)));
+    }
+
+    /**
+     * Runs the handler for one record in its own transaction, retrying up to {@code max-attempts} times.
+     * Failures are logged, never thrown, so the caller can always acknowledge the record afterwards.
+     * A reply that was already handled is dropped without running the handler. The handling runs in a span
+     * that continues the trace carried in the record headers.
+     *
+     * @param record the consumed record
+     * @param handler the listener logic, called with the record value
+     */
+    public void handle(ConsumerRecord<String, String> record, MessageHandler handler) {
+        sagaTracing.inReplySpan(record, () -> handleWithRetries(record, handler));
+    }
+
+    private void handleWithRetries(ConsumerRecord<String, String> record, MessageHandler handler) {
+        String messageKey = replyIdempotencyGuard.messageKey(record);
+        if (messageKey != null && replyIdempotencyGuard.isRecentlyProcessed(messageKey)) {
+            log.debug("Dropping duplicate reply {} at {}-{}@{}", messageKey, record.topic(), record.partition(), record.offset());
+            return;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                inTransaction(record, messageKey, handler);
+                if (messageKey != null) {
+                    replyIdempotencyGuard.remember(messageKey);
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while handling record {}-{}@{}", record.topic(), record.partition(), record.offset());
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    // 기본 error handler 와 마찬가지로 재시도가 끝나면 로그만 남기고 offset 은 넘긴다
+                    log.error("Giving up on record {}-{}@{} after {} attempts", record.topic(), record.partition(), record.offset(), attempt, e);
+                    return;
+                }
+                log.warn("Failed to handle record {}-{}@{} (attempt {}/{})", record.topic(), record.partition(), record.offset(), attempt, maxAttempts, e);
+            }
+        }
+    }
+
+    private void inTransaction(ConsumerRecord<String, String> record, String messageKey, MessageHandler handler) throws InterruptedException {
+        // lane 이 connection pool 보다 많을 수 있으므로 동시에 여는 transaction 수는 pool 크기로 묶는다
+        transactions.acquire();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // 처리 기록은 handler 의 작업과 같이 commit 되거나 같이 rollback 된다
+                if (messageKey != null && !replyIdempotencyGuard.markProcessed(messageKey)) {
+                    log.debug("Dropping already processed reply {} at {}-{}@{}", messageKey, record.topic(), record.partition(), record.offset());
+                    return;
+                }
+                try {
+                    handler.handle(record.value());
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } finally {
+            transactions.release();
+        }
+    }
+
+    /**
+     * Returns the ordering key of a record: its Kafka key, or the {@code sagaId} field of the payload.
+     *
+     * @param record the consumed record
+     * @return the key that selects the lane
+     */
+    public String keyOf(ConsumerRecord<String, String> record) {
+        if (record.key() != null) {
+            return record.key();
+        }
+        // key 없이 발행된 메시지는 payload 의 sagaId 로 lane 을 고른다
+        try {
+            JsonNode sagaId = objectMapper.readTree(record.value()).get("sagaId");
+            if (sagaId != null && !sagaId.isNull()) {
+                return sagaId.asText();
+            }
+        } catch (Exception e) {
+            log.warn("Could not read sagaId from record {}-{}@{}", record.topic(), record.partition(), record.offset());
+        }
+        return String.valueOf(record.partition());
+    }
+
+    private ExecutorService laneOf(String key) {
+        return lanes[Math.floorMod(key.hashCode(), lanes.length)];
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            if (!lane.awaitTermination(10, TimeUnit.SECONDS)) {
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface MessageHandler {
+        void handle(String message) throws Exception;
+    }
+}
@@ -0,0 +1,138 @@
+package saga.order.sagaevent.dispatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import saga.order.domain.repository.ProcessedMessageJpaRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Drops participant replies that were already handled, keyed by {@code stepId:topic}.
+ *
+ * The topic of a reply is its outcome, so a success and a failure for the same step are different
+ * messages while a redelivered success is not. A reply is first checked against a bounded in-memory
+ * set of recently handled keys; a hit is dropped before a transaction, a state machine or an entity is
+ * touched. On a miss, {@link #markProcessed} inserts the key into {@code processed_message} in the
+ * transaction of the handler, so the key is only recorded if the handler's work commits, and a
+ * redelivery that the cache does not know (after a restart or a rebalance to another node) costs one
+ * insert instead of the whole handler.
+ *
+ * Rows older than {@code saga.idempotency.retention} are purged; that retention has to cover the
+ * longest time a reply can be redelivered.
+ */
+@Component
+@Slf4j
+public class ReplyIdempotencyGuard {
+    private static final int PURGE_BATCH_SIZE = 10_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ProcessedMessageJpaRepository processedMessageJpaRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Cache<String, Boolean> recentlyProcessed;
+    private final Counter cacheDuplicates;
+    private final Counter tableDuplicates;
+    private final Duration retention;
+
+    public ReplyIdempotencyGuard(ProcessedMessageJpaRepository processedMessageJpaRepository,
+                                 TransactionTemplate transactionTemplate,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${saga.idempotency.cache.maximum-size:100000}") long maximumSize,
+                                 @Value("${saga.idempotency.retention:7d}") Duration retention) {
+        this.processedMessageJpaRepository = processedMessageJpaRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.recentlyProcessed = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .build();
+        this.retention = retention;
+        this.cacheDuplicates = Counter.builder("saga.reply.duplicates")
+            .description("Saga replies dropped because they were already handled")
+            .tag("source", "cache")
+            .register(meterRegistry);
+        this.tableDuplicates = Counter.builder("saga.reply.duplicates")
+            .description("Saga replies dropped because they were already handled")
+            .tag("source", "table")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Returns the idempotency key of a reply: its {@code stepId} (or {@code eventId} for replies that
+     * cover several steps) and its topic.
+     *
+     * @param record the consumed reply
+     * @return the key, or null if the reply carries no id to deduplicate on
+     */
+    public String messageKey(ConsumerRecord<String, String> record) {
+        try {
+            JsonNode reply = objectMapper.readTree(record.value());
+            JsonNode id = reply.hasNonNull("stepId") ? reply.get("stepId") : reply.get("eventId");
+            if (id == null || id.isNull()) {
+                return null;
+            }
+            return id.asText() + ":" + record.topic();
+        } catch (Exception e) {
+            // 파싱이 안 되는 메시지는 handler 가 같은 이유로 실패하도록 그대로 넘긴다
+            return null;
+        }
+    }
+
+    /**
+     * @param messageKey the key from {@link #messageKey}
+     * @return true if this node handled the reply recently; the reply can be dropped without a transaction
+     */
+    public boolean isRecentlyProcessed(String messageKey) {
+        if (recentlyProcessed.getIfPresent(messageKey) == null) {
+            return false;
+        }
+        cacheDuplicates.increment();
+        return true;
+    }
+
+    /**
+     * Records the reply as processed in the current transaction.
+     *
+     * @param messageKey the key from {@link #messageKey}
+     * @return false if the reply was already recorded by an earlier, committed delivery
+     */
+    public boolean markProcessed(String messageKey) {
+        if (processedMessageJpaRepository.markProcessed(messageKey) == 1) {
+            return true;
+        }
+        tableDuplicates.increment();
+        return false;
+    }
+
+    /**
+     * Remembers a reply whose transaction committed, so further deliveries are dropped by the cache.
+     *
+     * @param messageKey the key from {@link #messageKey}
+     */
+    public void remember(String messageKey) {
+        recentlyProcessed.put(messageKey, Boolean.TRUE);
+    }
+
+    @Scheduled(fixedDelayString = "${saga.idempotency.purge-interval-ms:60000}")
+    public void purge() {
+        LocalDateTime before = LocalDateTime.now().minus(retention);
+        int purged = 0;
+        Integer deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> processedMessageJpaRepository.deleteProcessedBefore(before, PURGE_BATCH_SIZE));
+            purged += deleted == null ? 0 : deleted;
+        } while (deleted != null && deleted == PURGE_BATCH_SIZE);
+
+        if (purged > 0) {
+            log.info("Purged {} processed message keys older than {}", purged, before);
+        }
+    }
+}
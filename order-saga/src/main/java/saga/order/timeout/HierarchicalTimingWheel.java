@@ -0,0 +1,147 @@
+package saga.order.timeout;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel of {@code (id, key)} timers, in the style of the classic Linux kernel timer wheel.
+ *
+ * Time is cut into ticks of {@code tickMs}. The first level has one slot per tick for the next 256 ticks,
+ * every further level has 256 slots that each span 256 slots of the level below. A timer goes into the
+ * lowest level whose range covers its deadline, and each time a lower level wraps around, the current slot
+ * of the level above is cascaded down. Scheduling is O(1), each timer is moved at most once per level, and
+ * advancing costs O(1) per tick plus the timers that expire, independent of how many timers are pending.
+ *
+ * With four levels the wheel spans 2^32 ticks; later deadlines are clamped to that horizon. A timer whose
+ * deadline has already passed expires on the next tick. Timers cannot be cancelled: they are two longs and
+ * a link, and whoever consumes an expiry checks whether it still matters.
+ *
+ * {@link #schedule} may be called from any thread; {@link #advance} is meant to be called by one ticker thread.
+ */
+public final class HierarchicalTimingWheel {
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long HORIZON = 1L << (BITS * LEVELS);
+
+    private final long tickMs;
+    private final Timer[][] slots = new Timer[LEVELS][SLOTS];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong pending = new AtomicLong();
+    // 다음에 처리할 tick
+    private long currentTick;
+
+    public HierarchicalTimingWheel(long tickMs, long startMs) {
+        this.tickMs = tickMs;
+        this.currentTick = startMs / tickMs;
+    }
+
+    /**
+     * @param id the timer id
+     * @param key the key passed back with the id on expiry
+     * @param deadlineMs the epoch millis the timer expires at, rounded up to the next tick
+     */
+    public void schedule(long id, long key, long deadlineMs) {
+        Timer timer = new Timer(id, key, Math.ceilDiv(deadlineMs, tickMs));
+        lock.lock();
+        try {
+            add(timer);
+        } finally {
+            lock.unlock();
+        }
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Processes every tick up to {@code nowMs} and hands the expired timers to {@code expiry}.
+     * The lock is released between ticks, so scheduling never waits on a long catch-up.
+     *
+     * @param nowMs the current epoch millis
+     * @param expiry receives each expired timer, outside of the lock
+     * @return the number of expired timers
+     */
+    public int advance(long nowMs, Expiry expiry) {
+        long targetTick = nowMs / tickMs;
+        int expired = 0;
+        while (true) {
+            Timer due;
+            lock.lock();
+            try {
+                if (currentTick > targetTick) {
+                    return expired;
+                }
+                if ((currentTick & MASK) == 0) {
+                    cascade();
+                }
+                int slot = (int) (currentTick & MASK);
+                due = slots[0][slot];
+                slots[0][slot] = null;
+                currentTick++;
+            } finally {
+                lock.unlock();
+            }
+
+            for (Timer timer = due; timer != null; timer = timer.next) {
+                pending.decrementAndGet();
+                expired++;
+                expiry.expired(timer.id, timer.key);
+            }
+        }
+    }
+
+    public long pending() {
+        return pending.get();
+    }
+
+    private void cascade() {
+        // 아래 level 이 한 바퀴 돌 때마다 위 level 의 현재 slot 을 풀어서 다시 넣는다
+        for (int level = 1; level < LEVELS; level++) {
+            int slot = (int) ((currentTick >>> (level * BITS)) & MASK);
+            Timer timer = slots[level][slot];
+            slots[level][slot] = null;
+            while (timer != null) {
+                Timer next = timer.next;
+                add(timer);
+                timer = next;
+            }
+            if (slot != 0) {
+                return;
+            }
+        }
+    }
+
+    private void add(Timer timer) {
+        long delta = timer.tick - currentTick;
+        if (delta < 0) {
+            timer.tick = currentTick;
+            delta = 0;
+        } else if (delta >= HORIZON) {
+            timer.tick = currentTick + HORIZON - 1;
+            delta = HORIZON - 1;
+        }
+
+        int level = delta < SLOTS ? 0 : (63 - Long.numberOfLeadingZeros(delta)) / BITS;
+        int slot = (int) ((timer.tick >>> (level * BITS)) & MASK);
+        timer.next = slots[level][slot];
+        slots[level][slot] = timer;
+    }
+
+    @FunctionalInterface
+    public interface Expiry {
+        void expired(long id, long key);
+    }
+
+    private static final class Timer {
+        private final long id;
+        private final long key;
+        private long tick;
+        private Timer next;
+
+        private Timer(long id, long key, long tick) {
+            this.id = id;
+            this.key = key;
+            this.tick = tick;
+        }
+    }
+}
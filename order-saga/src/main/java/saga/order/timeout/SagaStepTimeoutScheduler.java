@@ -0,0 +1,174 @@
+package saga.order.timeout;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Limit;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import saga.order.config.statemachine.SagaTransitionExecutor;
+import saga.order.domain.entity.SagaInstanceEntity;
+import saga.order.domain.entity.SagaStepEntity;
+import saga.order.domain.repository.PendingSagaStep;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+import saga.order.domain.repository.SagaStepJpaRepository;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+import saga.order.sagaevent.dispatch.KeyOrderedDispatcher;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drives the saga step timing wheel and times out steps whose participant never replied.
+ *
+ * On start the wheel is rebuilt from the {@code IN_PROGRESS}/{@code COMPENSATING} rows of {@code saga_step},
+ * before any listener container starts: its lifecycle phase is just below the containers' one. A single ticker thread then advances the wheel. Most expired
+ * deadlines belong to steps that were answered long ago, so the expired step ids of a tick are checked with
+ * one query, and only the steps that are still pending are handed to the lane of their saga.
+ *
+ * There the step is moved to FAILED with a conditional UPDATE, so a reply that arrives at the same time
+ * either wins (and the timeout does nothing) or is ignored as a late reply. If the saga is still in the
+ * phase of the step, the timeout event of that phase is fired; the saga row is locked first so a reply that
+ * just completed the phase is seen.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SagaStepTimeoutScheduler implements SmartLifecycle {
+    private static final int PAGE_SIZE = 1_000;
+    private static final Set<SagaStepEntity.StepStatus> PENDING = EnumSet.of(SagaStepEntity.StepStatus.IN_PROGRESS, SagaStepEntity.StepStatus.COMPENSATING);
+
+    // step 이름 → 그 step 이 속한 phase 와 phase 를 끝내는 timeout event
+    private static final Map<String, Phase> PHASES = Map.of(
+        "paymentRequestCommand", new Phase(OrderSagaState.PAYMENT_REQUESTED, OrderSagaEvent.PAYMENT_TIMEOUT, OrderSagaState.FAILED),
+        "inventoryReserve", new Phase(OrderSagaState.INVENTORY_RESRVING, OrderSagaEvent.INVENTORY_TIMEOUT, OrderSagaState.COMPENSATING_PAYMENT),
+        "inventoryFailurePaymentCompensate", new Phase(OrderSagaState.COMPENSATING_PAYMENT, OrderSagaEvent.PAYMENT_COMPENSATE_TIMEOUT, OrderSagaState.FAILED),
+        "inventoryFailureInventoryCompensate", new Phase(OrderSagaState.COMPENSATING_INVENTORY, OrderSagaEvent.INVENTORY_COMPENSATE_TIMEOUT, OrderSagaState.FAILED)
+    );
+
+    private final SagaStepTimeouts sagaStepTimeouts;
+    private final SagaStepJpaRepository sagaStepJpaRepository;
+    private final SagaInstanceJpaRepository sagaInstanceJpaRepository;
+    private final SagaTransitionExecutor sagaTransitionExecutor;
+    private final KeyOrderedDispatcher keyOrderedDispatcher;
+
+    @Value("${saga.timeout.tick:100ms}")
+    private Duration tick;
+
+    @Value("${saga.timeout.retry-delay:5s}")
+    private Duration retryDelay;
+
+    private volatile Thread ticker;
+
+    @Override
+    public void start() {
+        rebuild();
+        ticker = Thread.ofPlatform().name("saga-timeout-ticker").daemon().start(this::run);
+    }
+
+    private void rebuild() {
+        long started = System.nanoTime();
+        long loaded = 0;
+        long after = 0;
+        List<PendingSagaStep> steps;
+        do {
+            steps = sagaStepJpaRepository.findPendingAfter(PENDING, after, Limit.of(PAGE_SIZE));
+            for (PendingSagaStep step : steps) {
+                sagaStepTimeouts.register(step);
+            }
+            loaded += steps.size();
+            if (!steps.isEmpty()) {
+                after = steps.get(steps.size() - 1).id();
+            }
+        } while (steps.size() == PAGE_SIZE);
+
+        log.info("Saga step timing wheel rebuilt with {} pending steps in {} ms", loaded, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void run() {
+        List<Long> expired = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(tick);
+                sagaStepTimeouts.advance(System.currentTimeMillis(), (stepId, sagaId) -> expired.add(stepId));
+                for (int from = 0; from < expired.size(); from += PAGE_SIZE) {
+                    timeOutPending(expired.subList(from, Math.min(from + PAGE_SIZE, expired.size())));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("Failed to process expired saga step deadlines", e);
+            } finally {
+                expired.clear();
+            }
+        }
+    }
+
+    private void timeOutPending(List<Long> stepIds) {
+        for (PendingSagaStep step : sagaStepJpaRepository.findPendingByIds(stepIds, PENDING)) {
+            keyOrderedDispatcher.execute(step.sagaId(), () -> timeOut(step))
+                .exceptionally(e -> {
+                    // 그 사이 응답이 오면 다음 시도는 조용히 끝난다
+                    log.warn("Failed to time out step {} of sagaId: {}, retrying in {}", step.id(), step.sagaId(), retryDelay, e);
+                    sagaStepTimeouts.retry(step, retryDelay);
+                    return null;
+                });
+        }
+    }
+
+    private void timeOut(PendingSagaStep step) {
+        if (sagaStepJpaRepository.transitStatus(step.id(), step.status(), SagaStepEntity.StepStatus.FAILED) == 0) {
+            return;
+        }
+        log.warn("Step {} ({}) of sagaId: {} timed out", step.id(), step.stepName(), step.sagaId());
+
+        Phase phase = PHASES.get(step.stepName());
+        if (phase == null) {
+            return;
+        }
+        SagaInstanceEntity sagaInstance = sagaInstanceJpaRepository.findByIdForUpdate(step.sagaId())
+            .orElseThrow(() -> new IllegalStateException("Saga not found for sagaId : " + step.sagaId()));
+        // 같은 phase 의 다른 step 이 먼저 timeout 을 냈거나 saga 가 이미 다음 phase 로 넘어갔다
+        if (sagaInstance.getStatus() != phase.state()) {
+            return;
+        }
+
+        sagaTransitionExecutor.fire(step.sagaId(), sagaInstance.getStatus(), MessageBuilder
+                .withPayload(phase.timeout())
+                .setHeader("sagaId", step.sagaId())
+                .setHeader("stepId", step.id())
+                .build())
+            .doOnSuccess(transited -> sagaInstance.setStatus(phase.target()))
+            .block();
+    }
+
+    // listener container 보다 먼저 시작해서 wheel 이 다 채워진 뒤에 응답을 받는다
+    @Override
+    public int getPhase() {
+        return AbstractMessageListenerContainer.DEFAULT_PHASE - 1;
+    }
+
+    @Override
+    public void stop() {
+        Thread current = ticker;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        Thread current = ticker;
+        return current != null && current.isAlive();
+    }
+
+    private record Phase(OrderSagaState state, OrderSagaEvent timeout, OrderSagaState target) {
+    }
+}
@@ -0,0 +1,93 @@
+package saga.order.timeout;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import saga.order.domain.entity.SagaStepEntity;
+import saga.order.domain.repository.PendingSagaStep;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Deadlines of the saga steps that wait for a participant's reply.
+ *
+ * The gateways register the steps they send; {@link SagaStepTimeoutScheduler} advances the wheel and
+ * handles what expires. This class only depends on configuration so the gateways can use it without
+ * pulling in the state machine.
+ */
+@Component
+public class SagaStepTimeouts {
+    private final HierarchicalTimingWheel wheel;
+    private final Duration forwardTimeout;
+    private final Duration compensationTimeout;
+
+    public SagaStepTimeouts(MeterRegistry meterRegistry,
+                            @Value("${saga.timeout.tick:100ms}") Duration tick,
+                            @Value("${saga.timeout.forward:30s}") Duration forwardTimeout,
+                            @Value("${saga.timeout.compensation:2m}") Duration compensationTimeout) {
+        this.wheel = new HierarchicalTimingWheel(tick.toMillis(), System.currentTimeMillis());
+        this.forwardTimeout = forwardTimeout;
+        this.compensationTimeout = compensationTimeout;
+        Gauge.builder("saga.timeout.pending", wheel, HierarchicalTimingWheel::pending)
+            .description("Saga step deadlines waiting in the timing wheel")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Registers the deadlines of steps that were just sent. Inside a transaction they are only registered
+     * once it committed, so an expiry never looks for a step that is not visible yet.
+     *
+     * @param sagaSteps the steps, all of one saga
+     */
+    public void register(Collection<SagaStepEntity> sagaSteps) {
+        List<PendingSagaStep> pendingSteps = sagaSteps.stream()
+            .map(step -> new PendingSagaStep(step.getId(), step.getSagaInstance().getId(), step.getStepName(),
+                step.getStepType(), step.getStatus(), step.getStartedAt()))
+            .toList();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    pendingSteps.forEach(SagaStepTimeouts.this::register);
+                }
+            });
+        } else {
+            pendingSteps.forEach(this::register);
+        }
+    }
+
+    /**
+     * Registers the deadline of one step, {@code startedAt} plus the timeout of its step type.
+     * Steps without {@code startedAt} get the full timeout from now.
+     *
+     * @param step the pending step
+     */
+    public void register(PendingSagaStep step) {
+        Duration timeout = step.stepType() == SagaStepEntity.StepType.COMPENSATION ? compensationTimeout : forwardTimeout;
+        long startedAt = step.startedAt() == null
+            ? System.currentTimeMillis()
+            : step.startedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        wheel.schedule(step.id(), step.sagaId(), startedAt + timeout.toMillis());
+    }
+
+    /**
+     * Registers a step again after a timeout could not be handled.
+     *
+     * @param step the pending step
+     * @param delay how long to wait before the next attempt
+     */
+    public void retry(PendingSagaStep step, Duration delay) {
+        wheel.schedule(step.id(), step.sagaId(), System.currentTimeMillis() + delay.toMillis());
+    }
+
+    int advance(long nowMs, HierarchicalTimingWheel.Expiry expiry) {
+        return wheel.advance(nowMs, expiry);
+    }
+}
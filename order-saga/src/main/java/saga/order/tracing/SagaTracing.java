@@ -0,0 +1,195 @@
+package saga.order.tracing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.TraceContext;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.propagation.Propagator;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.statemachine.action.Action;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Carries the trace of an order across the saga's Kafka hops and opens the spans of the saga's own work.
+ *
+ * A command is not sent by the thread that decided it but by {@code OutboxRelay}, so the propagation fields
+ * (W3C {@code traceparent}, {@code tracestate}, baggage) of the span that wrote an outbox row are stored with
+ * the row and added to the record headers when it is relayed. A participant that propagates them back on its
+ * reply lets {@link #inReplySpan} continue the same trace on the saga lane.
+ *
+ * Without a tracer (tracing disabled, benchmarks) every method falls back to the no-op tracer.
+ */
+@Component
+@Slf4j
+public class SagaTracing {
+    private static final TypeReference<Map<String, String>> HEADERS = new TypeReference<>() { };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Tracer tracer;
+    private final Propagator propagator;
+
+    @Autowired
+    public SagaTracing(ObjectProvider<Tracer> tracer, ObjectProvider<Propagator> propagator) {
+        this(tracer.getIfAvailable(() -> Tracer.NOOP), propagator.getIfAvailable(() -> Propagator.NOOP));
+    }
+
+    public SagaTracing(Tracer tracer, Propagator propagator) {
+        this.tracer = tracer;
+        this.propagator = propagator;
+    }
+
+    /**
+     * Runs {@code work} in a child span of the current span.
+     *
+     * @param name the span name
+     * @param work the work
+     * @return what the work returned
+     */
+    public <T> T inSpan(String name, Callable<T> work) throws Exception {
+        Span span = tracer.nextSpan().name(name).start();
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            return work.call();
+        } catch (Exception | Error e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Wraps a {@link Mono} in a span. The state machine runs the event on the subscribing thread, so the span
+     * is put in scope while the Mono is created and subscribed, which covers the restore, the actions and the
+     * persist. The scope is closed on that same thread when subscribing returns; the span itself ends when the
+     * Mono terminates, on whichever thread that is.
+     *
+     * @param name the span name
+     * @param work supplies the Mono, called on subscription
+     * @return the Mono, ending the span when it terminates
+     */
+    public <T> Mono<T> deferInSpan(String name, Supplier<Mono<T>> work) {
+        return Mono.defer(() -> {
+            Span span = tracer.nextSpan().name(name).start();
+            Mono<T> traced;
+            try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+                traced = work.get()
+                    .doOnError(span::error)
+                    .doFinally(signal -> span.end());
+            } catch (RuntimeException | Error e) {
+                span.error(e);
+                span.end();
+                throw e;
+            }
+            return Mono.fromDirect(subscriber -> {
+                try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+                    traced.subscribe(subscriber);
+                }
+            });
+        });
+    }
+
+    /**
+     * Wraps a transition action in a span named after it.
+     *
+     * @param name the action name
+     * @param action the action
+     * @return the traced action
+     */
+    public Action<OrderSagaState, OrderSagaEvent> traced(String name, Action<OrderSagaState, OrderSagaEvent> action) {
+        return context -> {
+            Span span = tracer.nextSpan().name("saga action " + name).start();
+            try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+                action.execute(context);
+            } catch (RuntimeException e) {
+                span.error(e);
+                throw e;
+            } finally {
+                span.end();
+            }
+        };
+    }
+
+    /**
+     * Runs the handling of a reply in a consumer span whose parent is taken from the record headers,
+     * or in a new trace if the participant did not send any.
+     *
+     * @param record the reply
+     * @param work the handling
+     */
+    public void inReplySpan(ConsumerRecord<String, String> record, Runnable work) {
+        Span span = propagator.extract(record.headers(), SagaTracing::lastHeader)
+            .name("saga reply " + record.topic())
+            .kind(Span.Kind.CONSUMER)
+            .tag("messaging.destination.name", record.topic())
+            .tag("messaging.kafka.message.key", String.valueOf(record.key()))
+            .start();
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            work.run();
+        } catch (RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * @return the propagation fields of the current span as JSON, for an outbox row, or null outside a span
+     */
+    public String currentHeaders() {
+        TraceContext context = tracer.currentTraceContext().context();
+        if (context == null) {
+            return null;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        propagator.inject(context, fields, Map::put);
+        if (fields.isEmpty()) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(fields);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize trace headers: " + fields, e);
+        }
+    }
+
+    /**
+     * Adds the propagation fields stored with an outbox row to the headers of the record that relays it.
+     *
+     * @param traceHeaders the JSON from {@link #currentHeaders}, may be null
+     * @param headers the record headers
+     */
+    public void addHeaders(String traceHeaders, Headers headers) {
+        if (traceHeaders == null) {
+            return;
+        }
+        try {
+            objectMapper.readValue(traceHeaders, HEADERS)
+                .forEach((key, value) -> headers.add(key, value.getBytes(StandardCharsets.UTF_8)));
+        } catch (JsonProcessingException e) {
+            // trace 가 끊길 뿐 command 는 그대로 보낸다
+            log.warn("Ignoring unreadable trace headers {}", traceHeaders, e);
+        }
+    }
+
+    private static String lastHeader(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,23 @@
+package saga.order.tracing;
+
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Local stand-in for an OTLP collector. With {@code saga.tracing.exporter=file} finished spans are written as
+ * OTLP JSON lines to the {@code SPANS} appender of logback-spring.xml, one {@code ExportTraceServiceRequest}
+ * per batch, which a collector's file receiver can read back. With {@code management.otlp.tracing.endpoint}
+ * set, Spring Boot adds the OTLP exporter next to this one.
+ */
+@Configuration
+public class SpanExportConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "saga.tracing.exporter", havingValue = "file")
+    public SpanExporter otlpJsonFileSpanExporter() {
+        return OtlpJsonLoggingSpanExporter.create();
+    }
+}
@@ -0,0 +1,75 @@
+package saga.order.config.statemachine;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.statemachine.StateMachineContext;
+import saga.order.enums.OrderSagaEvent;
+import saga.order.enums.OrderSagaState;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryStateMachineContextCodecTest {
+    private final BinaryStateMachineContextCodec codec = new BinaryStateMachineContextCodec();
+
+    @Test
+    void roundTripsEveryStateAndEvent() throws IOException {
+        for (OrderSagaState state : OrderSagaState.values()) {
+            for (OrderSagaEvent event : OrderSagaEvent.values()) {
+                Map<String, Object> headers = new HashMap<>();
+                headers.put("sagaId", 1_234_567_890_123_456_789L);
+                headers.put("event", event);
+                CustomExtendedState extendedState = new CustomExtendedState();
+                extendedState.getVariables().put("state", state);
+                extendedState.getVariables().put("event", event);
+                CustomStateMachineContext context = new CustomStateMachineContext(state, event, headers, extendedState,
+                    Map.of(state, OrderSagaState.FAILED), "1234567890123456789");
+
+                StateMachineContext<OrderSagaState, OrderSagaEvent> decoded = codec.decode(codec.encode(context));
+
+                assertThat(decoded.getState()).isEqualTo(state);
+                assertThat(decoded.getEvent()).isEqualTo(event);
+                assertThat(decoded.getId()).isEqualTo("1234567890123456789");
+                assertThat(decoded.getHistoryStates()).containsExactlyEntriesOf(Map.of(state, OrderSagaState.FAILED));
+                assertThat(decoded.getEventHeaders()).containsExactlyInAnyOrderEntriesOf(headers);
+                assertThat(decoded.getExtendedState().getVariables()).containsExactlyInAnyOrderEntriesOf(extendedState.getVariables());
+            }
+        }
+    }
+
+    @Test
+    void roundTripsNullsAndEveryVariableType() throws IOException {
+        CustomExtendedState extendedState = new CustomExtendedState();
+        Map<Object, Object> variables = extendedState.getVariables();
+        variables.put("string", "inventoryReserve");
+        variables.put("int", -42);
+        variables.put("long", Long.MIN_VALUE);
+        variables.put("boolean", true);
+        variables.put("double", 0.25);
+        variables.put(7, OrderSagaState.COMPENSATING_INVENTORY);
+        CustomStateMachineContext context = new CustomStateMachineContext(null, null, null, extendedState, null, null);
+
+        StateMachineContext<OrderSagaState, OrderSagaEvent> decoded = codec.decode(codec.encode(context));
+
+        assertThat(decoded.getState()).isNull();
+        assertThat(decoded.getEvent()).isNull();
+        assertThat(decoded.getId()).isNull();
+        assertThat(decoded.getEventHeaders()).isNull();
+        assertThat(decoded.getHistoryStates()).isEmpty();
+        assertThat(decoded.getExtendedState().getVariables()).containsExactlyInAnyOrderEntriesOf(variables);
+    }
+
+    @Test
+    void rejectsUnsupportedVariablesAndForeignBytes() {
+        CustomExtendedState extendedState = new CustomExtendedState();
+        extendedState.getVariables().put("items", List.of("a", "b"));
+        CustomStateMachineContext context = new CustomStateMachineContext(OrderSagaState.ORDER_CREATED, null, null, extendedState);
+
+        assertThatThrownBy(() -> codec.encode(context)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> codec.decode("{\"state\":\"FAILED\"}".getBytes())).isInstanceOf(IOException.class);
+    }
+}
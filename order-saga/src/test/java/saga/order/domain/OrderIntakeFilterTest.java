@@ -0,0 +1,64 @@
+package saga.order.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import saga.order.domain.repository.SagaInstanceJpaRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OrderIntakeFilterTest {
+    private static final int EXPECTED_ORDERS = 100_000;
+
+    private final SagaInstanceJpaRepository sagaInstanceJpaRepository = mock(SagaInstanceJpaRepository.class);
+
+    @Test
+    void containsEveryPutOrderId() {
+        OrderIntakeFilter filter = new OrderIntakeFilter(sagaInstanceJpaRepository, new SimpleMeterRegistry(), EXPECTED_ORDERS, 0.01);
+        List<String> orderIds = orderIds(EXPECTED_ORDERS * 2);
+        // 예상 건수를 넘겨 filter 가 꽉 차도 false negative 는 없어야 한다
+        orderIds.forEach(filter::put);
+
+        assertThat(orderIds).allMatch(filter::mightContain);
+    }
+
+    @Test
+    void containsEveryOrderIdLoadedOnRebuild() {
+        List<String> orderIds = orderIds(25_000).stream().sorted().toList();
+        // findOrderIdsAfter 처럼 orderId 순으로 10,000 건씩 넘겨준다
+        when(sagaInstanceJpaRepository.findOrderIdsAfter(anyString(), anyInt())).thenReturn(List.of());
+        when(sagaInstanceJpaRepository.findOrderIdsAfter(eq(""), anyInt())).thenReturn(orderIds.subList(0, 10_000));
+        when(sagaInstanceJpaRepository.findOrderIdsAfter(eq(orderIds.get(9_999)), anyInt())).thenReturn(orderIds.subList(10_000, 20_000));
+        when(sagaInstanceJpaRepository.findOrderIdsAfter(eq(orderIds.get(19_999)), anyInt())).thenReturn(orderIds.subList(20_000, 25_000));
+
+        OrderIntakeFilter filter = new OrderIntakeFilter(sagaInstanceJpaRepository, new SimpleMeterRegistry(), EXPECTED_ORDERS, 0.01);
+        filter.afterPropertiesSet();
+
+        assertThat(orderIds).allMatch(filter::mightContain);
+    }
+
+    @Test
+    void keepsFalsePositivesNearTheConfiguredRate() {
+        OrderIntakeFilter filter = new OrderIntakeFilter(sagaInstanceJpaRepository, new SimpleMeterRegistry(), EXPECTED_ORDERS, 0.01);
+        orderIds(EXPECTED_ORDERS).forEach(filter::put);
+
+        long falsePositives = orderIds(EXPECTED_ORDERS).stream().filter(filter::mightContain).count();
+
+        assertThat((double) falsePositives / EXPECTED_ORDERS).isLessThan(0.02);
+    }
+
+    private static List<String> orderIds(int count) {
+        List<String> orderIds = new ArrayList<>(count);
+        IntStream.range(0, count).forEach(i -> orderIds.add(UUID.randomUUID().toString()));
+        return orderIds;
+    }
+}
@@ -0,0 +1,119 @@
+package saga.order.timeout;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HierarchicalTimingWheelTest {
+    private static final long LEVEL_1 = 1L << 8;
+    private static final long LEVEL_2 = 1L << 16;
+    private static final long LEVEL_3 = 1L << 24;
+    private static final long HORIZON = 1L << 32;
+
+    @Test
+    void expiresEachTimerAtItsTickAcrossLevelBoundaries() {
+        // level 이 바뀌는 tick 의 앞뒤와, cascade 가 일어나는 tick 바로 앞에서 시작한다
+        long start = LEVEL_1 - 3;
+        HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(1, start);
+        long[] deadlines = {
+            start, start + 1,
+            LEVEL_1 - 1, LEVEL_1, LEVEL_1 + 1,
+            start + LEVEL_1 - 1, start + LEVEL_1, start + LEVEL_1 + 1,
+            2 * LEVEL_1, 2 * LEVEL_1 + 7,
+            LEVEL_2 - 1, LEVEL_2, LEVEL_2 + 1,
+            start + LEVEL_2, 3 * LEVEL_2 + LEVEL_1 + 5,
+            LEVEL_3 - 1, LEVEL_3, LEVEL_3 + 1, LEVEL_3 + LEVEL_2 + LEVEL_1 + 1
+        };
+        // 뒤에서부터 넣어 expiry 순서가 schedule 순서를 따라가지 않게 한다
+        for (int i = deadlines.length - 1; i >= 0; i--) {
+            wheel.schedule(i, deadlines[i], deadlines[i]);
+        }
+
+        Map<Long, Long> expiredAt = new HashMap<>();
+        List<Long> order = new ArrayList<>();
+        long end = deadlines[deadlines.length - 1];
+        for (long now = start; now <= end; now++) {
+            long tick = now;
+            wheel.advance(now, (id, deadline) -> {
+                expiredAt.put(id, tick);
+                order.add(deadline);
+            });
+        }
+
+        for (int i = 0; i < deadlines.length; i++) {
+            assertThat(expiredAt.get((long) i)).as("timer due at tick %d", deadlines[i]).isEqualTo(deadlines[i]);
+        }
+        assertThat(order).isSorted().hasSize(deadlines.length);
+        assertThat(wheel.pending()).isZero();
+    }
+
+    @Test
+    void expiresRandomDeadlinesInOrderWhenAdvancedInJumps() {
+        long start = 1_700_000_000_123L;
+        long tickMs = 10;
+        HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(tickMs, start);
+        Random random = new Random(7);
+        long[] deadlines = new long[5_000];
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = start + (long) (random.nextDouble() * LEVEL_2 * 4 * tickMs);
+            wheel.schedule(i, i, deadlines[i]);
+        }
+
+        List<Long> expiredTicks = new ArrayList<>();
+        Map<Long, Long> expiredAt = new HashMap<>();
+        long end = start + LEVEL_2 * 4 * tickMs + tickMs;
+        // 한 번에 여러 tick 을 따라잡아도 tick 순서대로 만료된다
+        for (long now = start; now <= end; now += 997) {
+            long reached = now;
+            wheel.advance(now, (id, key) -> {
+                expiredTicks.add(Math.ceilDiv(deadlines[(int) id], tickMs));
+                expiredAt.put(id, reached);
+            });
+        }
+        wheel.advance(end, (id, key) -> {
+            expiredTicks.add(Math.ceilDiv(deadlines[(int) id], tickMs));
+            expiredAt.put(id, end);
+        });
+
+        assertThat(expiredTicks).hasSize(deadlines.length).isSorted();
+        for (int i = 0; i < deadlines.length; i++) {
+            // deadline 이 지난 뒤의 첫 advance 에서, 그 전에는 만료되지 않는다
+            assertThat(expiredAt.get((long) i) / tickMs).isGreaterThanOrEqualTo(Math.ceilDiv(deadlines[i], tickMs));
+            assertThat(expiredAt.get((long) i) - 997).isLessThan(Math.ceilDiv(deadlines[i], tickMs) * tickMs);
+        }
+    }
+
+    @Test
+    void expiresPastDeadlinesOnTheNextTick() {
+        HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(100, 10_000);
+        wheel.schedule(1, 1, 0);
+        wheel.schedule(2, 2, 9_999);
+
+        List<Long> expired = new ArrayList<>();
+        wheel.advance(10_000, (id, key) -> expired.add(id));
+
+        assertThat(expired).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void clampsDeadlinesBeyondTheHorizon() {
+        HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(1, 0);
+        // horizon 을 넘는 deadline 은 마지막 level 을 벗어나지 않고 horizon 으로 당겨진다
+        wheel.schedule(1, 1, Long.MAX_VALUE);
+        wheel.schedule(2, 2, HORIZON * 3);
+        wheel.schedule(3, 3, LEVEL_3 + 5);
+
+        List<Long> expired = new ArrayList<>();
+        int count = wheel.advance(LEVEL_3 + 5, (id, key) -> expired.add(id));
+
+        assertThat(count).isEqualTo(1);
+        assertThat(expired).containsExactly(3L);
+        assertThat(wheel.pending()).isEqualTo(2);
+    }
+}
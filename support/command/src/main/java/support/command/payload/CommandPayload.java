@@ -1,17 +1,27 @@
 package support.command.payload;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+/**
+ * Common part of the commands the saga sends to its participants.
+ *
+ * {@code sagaId} and {@code stepId} are Snowflake ids. They are written as JSON strings, as they were when they
+ * were held as strings, so participants and commands already in flight keep their format; a 64-bit id also
+ * does not fit the double of a JavaScript client. Both a string and a number are read back.
+ */
 @Setter
 @Getter
 @NoArgsConstructor
 @AllArgsConstructor
 @JsonIgnoreProperties(ignoreUnknown = true)
 public abstract class CommandPayload {
-    private String sagaId;
-    private String stepId;
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    private Long sagaId;
+    @JsonFormat(shape = JsonFormat.Shape.STRING)
+    private Long stepId;
 }
@@ -0,0 +1,39 @@
+package support.command.payload;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Reserves every line item of an order with a single command.
+ *
+ * The command itself has no saga step; each {@link Line} carries the stepId of its own saga step, and the
+ * inventory service answers once with the result of every line in the same order.
+ */
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class InventoryReserveBatchPayload extends CommandPayload {
+    private String orderId;
+    private List<Line> lines;
+
+    @Setter
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Line {
+        @JsonFormat(shape = JsonFormat.Shape.STRING)
+        private Long stepId;
+        private String reservationId;
+        private String productId;
+        private Integer quantity;
+    }
+}
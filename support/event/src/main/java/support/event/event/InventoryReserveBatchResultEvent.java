@@ -0,0 +1,24 @@
+package support.event.event;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record InventoryReserveBatchResultEvent(
+    String eventId,
+    @JsonFormat(shape = JsonFormat.Shape.STRING) Long sagaId,
+    String orderId,
+    List<LineResult> lines
+) {
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record LineResult(
+        @JsonFormat(shape = JsonFormat.Shape.STRING) Long stepId,
+        String reservationId,
+        String inventoryId,
+        boolean succeeded,
+        String reason
+    ) {
+    }
+}
@@ -1,12 +1,13 @@
 package support.event.event;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record InventoryReserveSucceedEvent(
     String eventId,
-    String sagaId,
-    String stepId,
+    @JsonFormat(shape = JsonFormat.Shape.STRING) Long sagaId,
+    @JsonFormat(shape = JsonFormat.Shape.STRING) Long stepId,
     String orderId,
     String inventoryId,
     String reason
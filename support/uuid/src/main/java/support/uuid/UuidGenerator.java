@@ -2,7 +2,23 @@ package support.uuid;
 
 import org.springframework.stereotype.Component;
 
+import java.util.stream.LongStream;
+
 @Component
 public interface UuidGenerator {
     long nextId();
+
+    /**
+     * Reserves {@code count} IDs in one call.
+     *
+     * @param count the number of IDs to reserve
+     * @return the reserved IDs in ascending order
+     */
+    default LongStream nextIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextId();
+        }
+        return LongStream.of(ids);
+    }
 }